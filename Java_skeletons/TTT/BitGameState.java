@@ -0,0 +1,421 @@
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+/**
+ * Represents a game state with a 4x4 board, stored as one 16-bit mask per
+ * player.
+ *
+ * Cells are numbered as in GameState, and bit i of a player's mask is set
+ * when that player has a mark in cell i. The 10 winning lines are kept in a
+ * static table of masks, so that a win is an AND and a compare with each of
+ * them, a draw (every line holding marks of both players) a pair of ANDs per
+ * line, and the legal moves the complement of the two masks. A child state
+ * copies two shorts instead of an array of cells.
+ *
+ * findPossibleMoves, toMessage and the message constructor give exactly the
+ * same results as the ones in GameState, and at(row, column) and BOARD_SIZE
+ * let the evaluation functions of Player read a board of either kind.
+ */
+public class BitGameState {
+    public static final int BOARD_SIZE = GameState.BOARD_SIZE;
+    public static final int CELL_COUNT = GameState.CELL_COUNT;
+    public static final int LINE_COUNT = 2 * BOARD_SIZE + 2;
+    public static final int FULL_BOARD = (1 << CELL_COUNT) - 1;   ///< mask of every cell
+
+    public static final int LINE_CODES = 81;   ///< number of codes of a line, 3^BOARD_SIZE
+
+    /** Masks of the rows, the columns, the diagonal and the anti-diagonal */
+    static final int[] LINE_MASKS = new int[LINE_COUNT];
+
+    /* Base-3 value of the 4 bits of a nibble, each bit a digit 1 */
+    private static final int[] TERNARY = new int[16];
+    private static final int COLUMN_MASK = 0x1111;   ///< cells of the first column
+
+    static {
+      for (int row = 0; row < BOARD_SIZE; ++row)
+        for (int col = 0; col < BOARD_SIZE; ++col) {
+          LINE_MASKS[row] |= 1 << GameState.rowColumnToCell(row, col);
+          LINE_MASKS[BOARD_SIZE + col] |= 1 << GameState.rowColumnToCell(row, col);
+        }
+      for (int pos = 0; pos < BOARD_SIZE; ++pos) {
+        LINE_MASKS[2 * BOARD_SIZE] |= 1 << GameState.rowColumnToCell(pos, pos);
+        LINE_MASKS[2 * BOARD_SIZE + 1] |= 1 << GameState.rowColumnToCell(pos, BOARD_SIZE - 1 - pos);
+      }
+      assert(LINE_MASKS[BOARD_SIZE] == COLUMN_MASK);
+
+      for (int nibble = 0; nibble < 16; ++nibble)
+        for (int bit = 0, power = 1; bit < BOARD_SIZE; ++bit, power *= 3)
+          if (((nibble >>> bit) & 1) != 0)
+            TERNARY[nibble] += power;
+    }
+
+    private short xCells;
+    private short oCells;
+    private int nextPlayer;
+    private Move lastMove;
+
+    /**
+     * Initializes the board to the starting position.
+     */
+    public BitGameState() {
+      this.lastMove = new Move(Move.MOVE_BOG);
+      // Player X starts
+      this.nextPlayer = Constants.CELL_X;
+    }
+
+    /**
+     * Constructs a board from a message string.
+     *
+     * @param pMessage the compact string representation of the state
+     */
+    public BitGameState(final String pMessage) {
+      StringTokenizer st = new StringTokenizer(pMessage);
+
+      String board, last_move, next_player;
+      board = st.nextToken();
+      last_move = st.nextToken();
+      next_player = st.nextToken();
+
+      assert(board.length() == CELL_COUNT);
+      assert(next_player.length() == 1);
+
+      // Parse the board
+      int x = 0, o = 0;
+      for (int i = 0; i < CELL_COUNT; ++i) {
+        if (board.charAt(i) == Constants.MESSAGE_SYMBOLS[Constants.CELL_X])
+          x |= 1 << i;
+        else if (board.charAt(i) == Constants.MESSAGE_SYMBOLS[Constants.CELL_O])
+          o |= 1 << i;
+        else
+          assert(board.charAt(i) == Constants.MESSAGE_SYMBOLS[Constants.CELL_EMPTY]);
+      }
+      this.xCells = (short) x;
+      this.oCells = (short) o;
+
+      // Parse last move
+      this.lastMove = new Move(last_move);
+
+      // Parse next player
+      this.nextPlayer = Constants.CELL_EMPTY;
+      for (int player = Constants.CELL_EMPTY; player <= Constants.CELL_O; ++player) {
+        if (next_player.charAt(0) == Constants.MESSAGE_SYMBOLS[player])
+          this.nextPlayer = player;
+      }
+    }
+
+    /**
+     * Constructs a bitboard copy of a game state.
+     *
+     * @param gameState the game state to copy
+     */
+    public BitGameState(final GameState gameState) {
+      int x = 0, o = 0;
+      for (int i = 0; i < CELL_COUNT; ++i) {
+        if (gameState.at(i) == Constants.CELL_X)
+          x |= 1 << i;
+        else if (gameState.at(i) == Constants.CELL_O)
+          o |= 1 << i;
+      }
+      this.xCells = (short) x;
+      this.oCells = (short) o;
+      this.lastMove = gameState.getMove();
+      this.nextPlayer = gameState.getNextPlayer();
+    }
+
+    /**
+     * Constructs a board which is the result of applying move move to board
+     * gameState.
+     *
+     * @param gameState the starting board position
+     * @param move the movement to perform
+     */
+    public BitGameState(final BitGameState gameState, final Move move) {
+      this.xCells = gameState.xCells;
+      this.oCells = gameState.oCells;
+      this.nextPlayer = gameState.nextPlayer;
+      this.lastMove = gameState.lastMove;
+
+      this.doMove(move);
+    }
+
+    /**
+     * Gets whether or not the current move marks the end of the game.
+     */
+    boolean isEOG() {
+      return this.lastMove.isEOG();
+    }
+
+    /**
+     * Gets whether or not the last move ended in a win for X player.
+     */
+    boolean isXWin() {
+      return this.lastMove.isXWin();
+    }
+
+    /**
+     * Gets whether or not the last move ended in a win for O player.
+     */
+    boolean isOWin() {
+      return lastMove.isOWin();
+    }
+
+    /**
+     * Gets the content of a cell in the board, from row and column number.
+     * If the cell falls outside of the board, return CELL_INVALID.
+     *
+     * @see GameState#at(int, int)
+     */
+    public int at(int row, int column) {
+      if ((row < 0) || (row > BOARD_SIZE - 1) || (column < 0) || (column > BOARD_SIZE - 1))
+        return Constants.CELL_INVALID;
+      return at(GameState.rowColumnToCell(row, column));
+    }
+
+    /**
+     * Returns the content of a cell in the board.
+     */
+    public int at(int pos) {
+      assert(pos >= 0);
+      assert(pos < CELL_COUNT);
+      if (((xCells >>> pos) & 1) != 0)
+        return Constants.CELL_X;
+      if (((oCells >>> pos) & 1) != 0)
+        return Constants.CELL_O;
+      return Constants.CELL_EMPTY;
+    }
+
+    /**
+     * Gets the cells owned by a player, one bit per cell.
+     */
+    public int getCells(int player) {
+      return ((player == Constants.CELL_X) ? xCells : oCells) & FULL_BOARD;
+    }
+
+    /**
+     * Gets the empty cells, one bit per cell.
+     */
+    public int getEmptyCells() {
+      return ~(xCells | oCells) & FULL_BOARD;
+    }
+
+    /**
+     * Gathers the 4 cells of a line, one bit per cell, into a nibble. A row
+     * is already one; the cells of a column, of the diagonal and of the
+     * anti-diagonal are spaced evenly, so that a multiplication shifts each
+     * of them into the top nibble of a 16-bit product without carries. The
+     * anti-diagonal comes out from its last cell to its first.
+     */
+    private static int lineNibble(int cells, int line) {
+      if (line < BOARD_SIZE)
+        return (cells >>> (BOARD_SIZE * line)) & 0xf;
+      if (line < 2 * BOARD_SIZE)
+        return ((((cells >>> (line - BOARD_SIZE)) & COLUMN_MASK) * 0x1248) >>> 12) & 0xf;
+      return (((cells & LINE_MASKS[line]) * 0x1111) >>> 12) & 0xf;
+    }
+
+    /**
+     * Gets the base-3 code of a line, from 0 to LINE_CODES - 1: the sum of
+     * the content of its i-th cell times 3^i. Lines are numbered as in
+     * LINE_MASKS, and a table of LINE_CODES values per line pattern turns a
+     * line into its score with one lookup.
+     *
+     * @param line the line, from 0 to LINE_COUNT - 1
+     */
+    public int getLineCode(int line) {
+      return TERNARY[lineNibble(xCells, line)]
+          + Constants.CELL_O * TERNARY[lineNibble(oCells, line)];
+    }
+
+    /**
+     * Finds the symmetry mapping the position to its canonical form.
+     *
+     * @see Symmetry#canonicalSymmetry(int, int)
+     */
+    public int getCanonicalSymmetry() {
+      return Symmetry.canonicalSymmetry(getCells(Constants.CELL_X), getCells(Constants.CELL_O));
+    }
+
+    /**
+     * Gets a key shared by the position and all its images under the
+     * symmetries, and by no other position: the X cells of the canonical form
+     * in the low 16 bits and its O cells in the high ones. The next player
+     * follows from the number of marks.
+     */
+    public int getCanonicalKey() {
+      int symmetry = getCanonicalSymmetry();
+      return Symmetry.transform(symmetry, getCells(Constants.CELL_X))
+          | (Symmetry.transform(symmetry, getCells(Constants.CELL_O)) << CELL_COUNT);
+    }
+
+    /**
+     * Gets the last move made (the move that led to the current state).
+     */
+    public final Move getMove() {
+      return this.lastMove;
+    }
+
+    /**
+     * Gets the next player (the player whose turn is after this one).
+     */
+    public final int getNextPlayer() {
+      return this.nextPlayer;
+    }
+
+    /**
+     * Checks whether a mask of marks completes a line.
+     */
+    static boolean isWin(int marks) {
+      for (int mask : LINE_MASKS)
+        if ((marks & mask) == mask)
+          return true;
+      return false;
+    }
+
+    /**
+     * Checks whether every line holds marks of both players.
+     */
+    static boolean isDraw(int x, int o) {
+      for (int mask : LINE_MASKS)
+        if ((x & mask) == 0 || (o & mask) == 0)
+          return false;
+      return true;
+    }
+
+    /**
+     * Checks if marking cell is a special move (win or draw) for player.
+     *
+     * @return Move.SPECIAL_WIN, Move.SPECIAL_DRAW or Move.SPECIAL_NONE
+     */
+    private int specialMove(int cell, int player) {
+      int x = getCells(Constants.CELL_X);
+      int o = getCells(Constants.CELL_O);
+      if (player == Constants.CELL_X)
+        x |= 1 << cell;
+      else
+        o |= 1 << cell;
+      if (isWin((player == Constants.CELL_X) ? x : o))
+        return Move.SPECIAL_WIN;
+      return isDraw(x, o) ? Move.SPECIAL_DRAW : Move.SPECIAL_NONE;
+    }
+
+    /**
+     * Converts a cell into the move the next player would make by marking it.
+     */
+    public Move toMove(int cell) {
+      return Move.of(cell, nextPlayer, specialMove(cell, nextPlayer));
+    }
+
+    /**
+     * Finds possible moves and stores these in a vector in the current game
+     * state.
+     *
+     * @param states the current game state
+     */
+    public void findPossibleMoves(Vector<BitGameState> states) {
+      states.clear();
+
+      if (lastMove.isEOG()) {
+        return;
+      }
+
+      for (int empty = getEmptyCells(); empty != 0; empty &= empty - 1) {
+        states.add(new BitGameState(this, toMove(Integer.numberOfTrailingZeros(empty))));
+      }
+    }
+
+    /**
+     * Finds possible moves, like findPossibleMoves, but only keeps one move of
+     * every group of moves which the symmetries of the position map onto each
+     * other, since they lead to positions of the same value. The move kept is
+     * the one to the lowest cell of the group.
+     *
+     * @param states the current game state
+     */
+    public void findUniqueMoves(Vector<BitGameState> states) {
+      int[] symmetries = new int[Symmetry.COUNT];
+      int symmetryCount = Symmetry.stabilizer(getCells(Constants.CELL_X),
+          getCells(Constants.CELL_O), symmetries);
+      if (symmetryCount == 1) {
+        findPossibleMoves(states);
+        return;
+      }
+
+      states.clear();
+      if (lastMove.isEOG()) {
+        return;
+      }
+      int covered = 0;
+      for (int empty = getEmptyCells(); empty != 0; empty &= empty - 1) {
+        int cell = Integer.numberOfTrailingZeros(empty);
+        if ((covered & (1 << cell)) != 0)
+          continue;
+        for (int k = 0; k < symmetryCount; ++k)
+          covered |= 1 << Symmetry.PERMUTATIONS[symmetries[k]][cell];
+        states.add(new BitGameState(this, toMove(cell)));
+      }
+    }
+
+    /**
+     * Transforms the board by performing a move.
+     *
+     * Note: This doesn't check that the move is valid, so you should only use
+     * it with moves returned by findPossibleMoves.
+     *
+     * @param move the move to perform
+     */
+    public void doMove(final Move move) {
+      // Set the cell
+      if (move.at(1) == Constants.CELL_X)
+        xCells |= 1 << move.at(0);
+      else
+        oCells |= 1 << move.at(0);
+
+      // Remember last move
+      lastMove = move;
+
+      // Swap player
+      nextPlayer = nextPlayer ^ (Constants.CELL_X | Constants.CELL_O);
+    }
+
+    /**
+     * Compares two game states.
+     *
+     * @param gameState game state to compare to
+     * @return true if game states are identical, otherwise false
+     */
+    public boolean isEqual(BitGameState gameState) {
+      return xCells == gameState.xCells && oCells == gameState.oCells
+          && nextPlayer == gameState.nextPlayer
+          && lastMove.toMessage().equals(gameState.getMove().toMessage());
+    }
+
+    /**
+     * Converts the board to a human-readable string for printing purposes.
+     *
+     * @see GameState#toString(int)
+     */
+    public String toString(int player) {
+      return new GameState(toMessage()).toString(player);
+    }
+
+    /**
+     * Converts the board to a machine-readable string ready to be printed to
+     * System.out.
+     *
+     * Note: This is used for passing board states between clients.
+     */
+    public String toMessage() {
+      StringBuffer ss = new StringBuffer();
+
+      // The board goes first
+      for (int i = 0; i < CELL_COUNT; i++) {
+        ss.append(Constants.MESSAGE_SYMBOLS[at(i)]);
+      }
+
+      // Then the information about moves
+      assert((nextPlayer == Constants.CELL_O) || (nextPlayer == Constants.CELL_X));
+      ss.append(" " + lastMove.toMessage() + " " + Constants.MESSAGE_SYMBOLS[nextPlayer]);
+
+      return ss.toString();
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Solves positions exactly, for Player to use once few cells are left.
+ *
+ * It is an alphabeta search to the end of the game with three values, WIN,
+ * DRAW and LOSS for the player to move, so that a window closes as soon as a
+ * win is found. A position is searched as the marks of the player to move
+ * and of the other player: the rules are the same for both, so a position
+ * and the one with X and O swapped share their value. Values are kept in a
+ * table by the canonical key of the position (see Symmetry), as bounds when
+ * the window cut the search short; a value holds whatever the root, so the
+ * table is kept from one move to the next.
+ *
+ * The search gives up when the Deadline comes too close, and the position
+ * is then left to the heuristic search.
+ */
+public class EndgameSolver {
+    public static final int WIN  = 1;    ///< the player to move wins
+    public static final int DRAW = 0;    ///< the game is drawn
+    public static final int LOSS = -1;   ///< the player to move loses
+
+    private static final int tableBits = 20;   ///< log2 of the entries of the table
+
+    /* Values by canonical key: keys, and bounds plus one (0 for an empty
+     * slot) with the value in the next two bits */
+    private static final int BOUND_EXACT = 0;
+    private static final int BOUND_LOWER = 1;   ///< the value is at least the one stored
+    private static final int BOUND_UPPER = 2;   ///< the value is at most the one stored
+    private final int[] tableKeys = new int[1 << tableBits];
+    private final byte[] tableEntries = new byte[1 << tableBits];
+
+    private Deadline deadline;
+    private long stopMargin;
+    private long nodes;
+    private boolean timeout;
+
+    /**
+     * Finds a move keeping the value of a position, if the search ends in
+     * time.
+     *
+     * @param board the position, which must not be over
+     * @param preferred a cell to play among the moves of the same value, or -1
+     * @param deadline time before which the search must end
+     * @param stopMargin time before the deadline at which the search gives up
+     * @return the cell to mark, or -1 if the search gave up
+     */
+    public int solve(BitGameState board, int preferred, Deadline deadline, long stopMargin) {
+      this.deadline = deadline;
+      this.stopMargin = stopMargin;
+      nodes = 0;
+      timeout = false;
+
+      int own = board.getCells(board.getNextPlayer());
+      int other = board.getCells(board.getNextPlayer() ^ (Constants.CELL_X | Constants.CELL_O));
+      int empty = board.getEmptyCells();
+
+      int best = -1;
+      int bestValue = LOSS - 1;
+      // The preferred cell first, so that it is kept among equal moves
+      if (preferred >= 0 && (empty & (1 << preferred)) != 0) {
+        best = preferred;
+        bestValue = moveValue(own, other, preferred, LOSS, WIN);
+        empty &= ~(1 << preferred);
+      }
+      for (; empty != 0 && bestValue < WIN; empty &= empty - 1) {
+        int cell = Integer.numberOfTrailingZeros(empty);
+        int value = moveValue(own, other, cell, Math.max(bestValue, LOSS), WIN);
+        if (value > bestValue) {
+          best = cell;
+          bestValue = value;
+        }
+      }
+      return timeout ? -1 : best;
+    }
+
+    /**
+     * Gets the number of positions searched by the last solve.
+     */
+    public long getNodes() {
+      return nodes;
+    }
+
+    /**
+     * Gets the value, for the player to move, of marking a cell.
+     */
+    private int moveValue(int own, int other, int cell, int alpha, int beta) {
+      int marks = own | (1 << cell);
+      if (BitGameState.isWin(marks))
+        return WIN;
+      if (BitGameState.isDraw(marks, other))
+        return DRAW;
+      return -search(other, marks, -beta, -alpha);
+    }
+
+    /**
+     * Gets the value of a position for the player to move, or a bound of it
+     * beyond the window.
+     *
+     * @param own the marks of the player to move
+     * @param other the marks of the other player, who just moved
+     */
+    private int search(int own, int other, int alpha, int beta) {
+      if ((++nodes & 1023) == 0 && deadline.timeUntil() < stopMargin) {
+        timeout = true;
+      }
+      if (timeout) {
+        return DRAW;
+      }
+
+      int empty = ~(own | other) & BitGameState.FULL_BOARD;
+      // A line to complete wins at once
+      for (int cells = empty; cells != 0; cells &= cells - 1) {
+        if (BitGameState.isWin(own | (cells & -cells)))
+          return WIN;
+      }
+
+      int symmetry = Symmetry.canonicalSymmetry(own, other);
+      int key = Symmetry.transform(symmetry, own)
+          | (Symmetry.transform(symmetry, other) << GameState.CELL_COUNT);
+      int slot = (key * 0x9E3779B1) >>> (32 - tableBits);
+      if (tableEntries[slot] != 0 && tableKeys[slot] == key) {
+        int bound = (tableEntries[slot] & 3) - 1;
+        int stored = (tableEntries[slot] >> 2) - 1;
+        if (bound == BOUND_EXACT) return stored;
+        if (bound == BOUND_LOWER) alpha = Math.max(alpha, stored);
+        if (bound == BOUND_UPPER) beta = Math.min(beta, stored);
+        if (beta <= alpha) return stored;
+      }
+
+      int alphaOrig = alpha;
+      int v = LOSS;
+      for (int cells = empty; cells != 0; cells &= cells - 1) {
+        int cell = Integer.numberOfTrailingZeros(cells);
+        v = Math.max(v, moveValue(own, other, cell, alpha, beta));
+        if (timeout) return DRAW;
+        alpha = Math.max(alpha, v);
+        if (beta <= alpha) break;
+      }
+
+      int bound = (v <= alphaOrig) ? BOUND_UPPER : (v >= beta) ? BOUND_LOWER : BOUND_EXACT;
+      tableKeys[slot] = key;
+      tableEntries[slot] = (byte) (((v + 1) << 2) | (bound + 1));
+      return v;
+    }
+}
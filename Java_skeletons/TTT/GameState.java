@@ -315,41 +315,16 @@ public class GameState {
 
     /**
       * Tries to make a move onto a certain position
-      * @param moves a vector where the valid moves will be inserted
       * @param cell the cell where the move is tried
+      * @return the packed move of the next player in cell, see Move#pack,
+      *         or -1 if the cell is not empty
       */
-    private void tryMove(Vector<Move> moves, int cell) {
-      int row = GameState.cellToRow(cell);
-      int column = GameState.cellToCol(cell);
-      int specialMove = Move.SPECIAL_NONE;
-      // Try move X
-      if (this.nextPlayer == Constants.CELL_X) {
-        // Try move
-        if(this.at(row, column) == Constants.CELL_EMPTY) {
-          //Check if special move
-          specialMove = this.isSpecialMove(cell, Constants.CELL_X);
-          if(specialMove != Move.SPECIAL_NONE) {
-            moves.add(new Move(cell, Constants.CELL_X, specialMove));
-          }
-          else {
-            moves.add(new Move(cell, Constants.CELL_X)); 
-          }
-        }                   
-      }
-      // Try move O
-      if (this.nextPlayer == Constants.CELL_O) {
-        // Try move
-        if (this.at(row, column) == Constants.CELL_EMPTY) {
-          // Check if special move
-          specialMove = this.isSpecialMove(cell, Constants.CELL_O);
-          if (specialMove > 0) {
-            moves.add(new Move(cell, Constants.CELL_O, specialMove));
-          }
-          else {
-            moves.add(new Move(cell, Constants.CELL_O)); 
-          }
-        }
+    private int tryMove(int cell) {
+      if (cells[cell] != Constants.CELL_EMPTY) {
+        return -1;
       }
+      // Check if special move
+      return Move.pack(cell, this.nextPlayer, this.isSpecialMove(cell, this.nextPlayer));
     }
 
     /**
@@ -365,16 +340,13 @@ public class GameState {
         return;
       }
 
-      Vector<Move> moves = new Vector<Move>();
-      
+      // Moves are shared instances, looked up by their packed int
       for (int k = 0; k < CELL_COUNT; ++k)
       {
-        tryMove(moves, k);        
-      }
-      
-      // Convert moves to GameStates
-      for (int i = 0; i < moves.size(); ++i) {
-        states.add(new GameState(this, moves.elementAt(i)));
+        int move = tryMove(k);
+        if (move >= 0) {
+          states.add(new GameState(this, Move.of(move)));
+        }
       }
     }
 
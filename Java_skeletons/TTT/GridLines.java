@@ -0,0 +1,151 @@
+/**
+ * The winning lines of an n x n board where k marks in a row win, and the
+ * other tables a search needs for that board, generated once per size and
+ * length.
+ *
+ * Cells are numbered as in GameState, row by row: cell = column + row * n.
+ * A line is k cells in a row along a row, a column, a diagonal or an
+ * anti-diagonal, so the board has 2 * n * (n - k + 1) + 2 * (n - k + 1)^2
+ * lines: 10 for the 4x4 board with k = 4, and 572 for a 15x15 board with
+ * k = 5. Every window of k cells is a line of its own, so a longer row of
+ * marks holds several of them.
+ *
+ * Line scores grow with the marks on a line as in the line scores of the
+ * 3D game, with a base growing with the number of lines so that a line with
+ * one more mark still outweighs every line with fewer. They are doubles,
+ * since the largest of them passes the range of a long on large boards.
+ */
+public class GridLines {
+    public static final int MIN_SIZE = 3;    ///< smallest board handled
+    public static final int MAX_SIZE = 32;   ///< largest board handled, 1024 cells
+    public static final int MIN_LENGTH = 3;  ///< fewest marks in a row to win
+
+    private static final GridLines[][] cache = new GridLines[MAX_SIZE + 1][MAX_SIZE + 1];
+
+    public final int size;        ///< cells along an edge
+    public final int length;      ///< marks in a row to win
+    public final int cellCount;   ///< cells on the board
+    public final int lineCount;   ///< winning lines on the board
+    public final int words;       ///< longs in a bitboard of the board
+
+    /** Cell indexes of every winning line */
+    final int[][] lines;
+    /** Indexes of the lines going through every cell */
+    final int[][] cellLines;
+    /**
+     * Score of a line for a player, indexed by the number of marks of the
+     * player and of the opponent on the line.
+     */
+    final double[][] lineScores;
+    /** Zobrist keys of every cell for each player, and of O being next */
+    final long[][] zobristCells;
+    final long zobristONext;
+
+    /**
+     * Gets the tables of a board.
+     *
+     * @param size cells along an edge, from MIN_SIZE to MAX_SIZE
+     * @param length marks in a row to win, from MIN_LENGTH to size
+     */
+    public static synchronized GridLines of(int size, int length) {
+      if (size < MIN_SIZE || size > MAX_SIZE) {
+        throw new IllegalArgumentException("Unsupported board size: " + size);
+      }
+      if (length < MIN_LENGTH || length > size) {
+        throw new IllegalArgumentException("Unsupported line length " + length + " on a board of size " + size);
+      }
+      if (cache[size][length] == null) {
+        cache[size][length] = new GridLines(size, length);
+      }
+      return cache[size][length];
+    }
+
+    private GridLines(int size, int length) {
+      this.size = size;
+      this.length = length;
+      this.cellCount = size * size;
+      int starts = size - length + 1;
+      this.lineCount = 2 * size * starts + 2 * starts * starts;
+      this.words = (cellCount + 63) / 64;
+      assert(cellCount <= Move.MAX_CELLS);
+
+      // Rows, columns, diagonals and anti-diagonals
+      final int[][] directions = { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 1, -1 } };
+      lines = new int[lineCount][];
+      int count = 0;
+      for (int[] direction : directions) {
+        int dRow = direction[0];
+        int dCol = direction[1];
+        for (int cell = 0; cell < cellCount; ++cell) {
+          int row = row(cell);
+          int col = column(cell);
+          int endRow = row + dRow * (length - 1);
+          int endCol = col + dCol * (length - 1);
+          if (endRow < 0 || endRow >= size || endCol < 0 || endCol >= size) {
+            continue;
+          }
+          int[] line = new int[length];
+          for (int i = 0; i < length; ++i) {
+            line[i] = cell(row + dRow * i, col + dCol * i);
+          }
+          lines[count++] = line;
+        }
+      }
+      assert(count == lineCount);
+
+      cellLines = new int[cellCount][];
+      int[] linesPerCell = new int[cellCount];
+      for (int l = 0; l < lineCount; ++l)
+        for (int cell : lines[l])
+          linesPerCell[cell]++;
+      for (int cell = 0; cell < cellCount; ++cell) {
+        cellLines[cell] = new int[linesPerCell[cell]];
+        linesPerCell[cell] = 0;
+      }
+      for (int l = 0; l < lineCount; ++l)
+        for (int cell : lines[l])
+          cellLines[cell][linesPerCell[cell]++] = l;
+
+      double base = lineCount + 4;
+      lineScores = new double[length + 1][length + 1];
+      for (int own = 0; own <= length; ++own) {
+        lineScores[own][0] = own * Math.pow(base, 2 * own);
+      }
+      lineScores[0][length - 1] = -Math.pow(base, 2 * length - 1);
+
+      // A fixed seed keeps keys the same from one run to the next
+      java.util.Random random = new java.util.Random(((long) size << 8) + length);
+      zobristCells = new long[Constants.CELL_O + 1][cellCount];
+      for (int player = Constants.CELL_X; player <= Constants.CELL_O; ++player)
+        for (int cell = 0; cell < cellCount; ++cell)
+          zobristCells[player][cell] = random.nextLong();
+      zobristONext = random.nextLong();
+    }
+
+    /**
+     * Gets the index of a cell from its row and column.
+     */
+    public int cell(int row, int column) {
+      return column + row * size;
+    }
+
+    /** Gets the row of a cell */
+    public int row(int cell) {
+      return cell / size;
+    }
+
+    /** Gets the column of a cell */
+    public int column(int cell) {
+      return cell % size;
+    }
+
+    /**
+     * Gets the size of the square board which has the given number of cells.
+     *
+     * @return the size, or -1 if no square board has that many cells
+     */
+    public static int sizeOf(int cellCount) {
+      int size = (int) Math.round(Math.sqrt(cellCount));
+      return (size * size == cellCount) ? size : -1;
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Chooses moves on boards of any size and line length, with an alphabeta
+ * search like the one of Player.
+ *
+ * The search deepens one ply at a time against the Deadline. Leaves are
+ * scored with the incremental score of the GridGameState, so a leaf costs
+ * nothing however many lines the board has. Wins and forced blocks are read
+ * from the winning cells of the board, and the other moves are ordered by
+ * the number of lines through their cell, after the best move a table
+ * remembers for the position. Scores are doubles, as line scores outgrow
+ * floats on large boards.
+ */
+public class GridPlayer {
+    private static final long tableMemory = 16L << 20;   ///< bytes used by the best move table
+    private static final double WIN_SCORE = 1e200;       ///< value of a won position, above any heuristic score
+    private static final double WIN_STEP = 1e196;        ///< bonus of a win for every ply it is closer to the root
+
+    private int depthMax;
+    private int playerMax;
+    private int nextMove;
+
+    /* The board searched in place, its tables, and the moves found at every
+     * depth */
+    private GridGameState board;
+    private GridLines lines;
+    private int[][] moves = new int[0][];
+    /* Cells by decreasing number of lines through them, for move ordering */
+    private int[] cellOrder;
+
+    private Deadline deadline;
+    private long stopMargin;
+    private long nodes;
+    private int completedDepth;
+    private boolean timeout;
+
+    /* Best move found for a position, indexed by its key: keys, and moves
+     * plus one (0 for none) */
+    private final long[] tableKeys;
+    private final short[] tableMoves;
+    private final int tableMask;
+
+    /**
+     * Creates a player for boards of any size.
+     */
+    public GridPlayer() {
+      int entries = (int) Long.highestOneBit(tableMemory / 10);
+      this.tableKeys = new long[entries];
+      this.tableMoves = new short[entries];
+      this.tableMask = entries - 1;
+    }
+
+    /**
+     * Performs a move
+     *
+     * @param gameState the current state of the board
+     * @param deadline time before which we must have returned
+     * @return the next state the board is in after our move
+     */
+    public GridGameState play(final GridGameState gameState, final Deadline deadline) {
+      board = new GridGameState(gameState.toMessage(), gameState.getLength());
+      if (board.getLines() != lines) {
+        lines = board.getLines();
+        moves = new int[lines.cellCount + 1][lines.cellCount];
+        cellOrder = orderCells(lines);
+        java.util.Arrays.fill(tableKeys, 0);
+      }
+
+      int emptyCells = board.getMoves(moves[0]);
+      if (emptyCells == 0) {
+        // Must play "pass" move if there are no other moves possible.
+        return new GridGameState(gameState, new Move());
+      }
+
+      int win = board.getWinCell(board.getNextPlayer());
+      if (win >= 0) {
+        return new GridGameState(gameState, board.toMove(win));
+      }
+
+      playerMax = board.getNextPlayer();
+      this.deadline = deadline;
+      long budget = deadline.timeUntil();
+      stopMargin = budget / 10;
+      nodes = 0;
+      completedDepth = 0;
+      timeout = false;
+
+      int bestMove = moves[0][0];
+      nextMove = bestMove;
+      for (depthMax = 1; depthMax <= emptyCells; depthMax++) {
+        alphabeta(depthMax, -Double.MAX_VALUE, Double.MAX_VALUE);
+        if (timeout) {
+          // Nothing better than the partial result without a completed iteration
+          if (completedDepth == 0) bestMove = nextMove;
+          break;
+        }
+        bestMove = nextMove;
+        completedDepth = depthMax;
+        if (deadline.timeUntil() < budget / 2) {
+          break;
+        }
+      }
+
+      return new GridGameState(gameState, board.toMove(bestMove));
+    }
+
+    /**
+     * Gets the number of nodes searched for the last move.
+     */
+    public long getNodes() {
+      return nodes;
+    }
+
+    /**
+     * Gets the depth of the last completed iteration of the last move.
+     */
+    public int getDepth() {
+      return completedDepth;
+    }
+
+    /**
+    *  ALPHABETA
+    *
+    */
+    private double alphabeta(int depth, double alpha, double beta) {
+      if ((++nodes & 1023) == 0 && deadline.timeUntil() < stopMargin) {
+        timeout = true;
+      }
+      if (timeout) {
+        return 0;
+      }
+
+      if (board.isEOG()) {
+        if (board.getMoveType() == Move.MOVE_DRAW) {
+          return 0;
+        }
+        // The player who just moved won
+        return (board.getNextPlayer() == playerMax) ? -winScore(depth) : winScore(depth);
+      }
+      if (depth == 0) {
+        return board.getScore(playerMax);
+      }
+
+      int player = board.getNextPlayer();
+      int opponent = player ^ (Constants.CELL_X | Constants.CELL_O);
+      int[] nextMoves = moves[depth];
+      int moveCount;
+
+      // A player who can complete a line wins, and one who cannot but faces
+      // such a line has to block it; two of them cannot both be blocked. The
+      // root still picks a move, among the winning or blocking ones.
+      int win = board.getWinCell(player);
+      if (win >= 0) {
+        if (depth != depthMax) {
+          return (player == playerMax) ? winScore(depth) : -winScore(depth);
+        }
+        nextMoves[0] = win;
+        moveCount = 1;
+      }
+      else if ((moveCount = board.getWinCells(opponent, nextMoves)) > 0) {
+        if (moveCount > 1 && depth != depthMax) {
+          return (player == playerMax) ? -winScore(depth - 1) : winScore(depth - 1);
+        }
+      }
+      else {
+        moveCount = orderedMoves(nextMoves);
+      }
+
+      long key = board.getKey();
+      int slot = (int) key & tableMask;
+      if (tableKeys[slot] == key && tableMoves[slot] != 0) {
+        moveToFront(nextMoves, moveCount, tableMoves[slot] - 1);
+      }
+      if (depth == depthMax) {
+        moveToFront(nextMoves, moveCount, nextMove);
+        nextMove = nextMoves[0];
+      }
+
+      int bestMove = nextMoves[0];
+      double v;
+      if (player == playerMax) {
+        v = -Double.MAX_VALUE;
+        for (int i = 0; i < moveCount; i++) {
+          board.apply(nextMoves[i]);
+          double child = alphabeta(depth - 1, alpha, beta);
+          board.undo();
+          if (timeout) return 0;
+          if (child > v) bestMove = nextMoves[i];
+          v = Math.max(v, child);
+          if (depth == depthMax && v > alpha) nextMove = nextMoves[i];
+          alpha = Math.max(alpha, v);
+          if (beta <= alpha) break;
+        }
+      }
+      else {
+        v = Double.MAX_VALUE;
+        for (int i = 0; i < moveCount; i++) {
+          board.apply(nextMoves[i]);
+          double child = alphabeta(depth - 1, alpha, beta);
+          board.undo();
+          if (timeout) return 0;
+          if (child < v) bestMove = nextMoves[i];
+          v = Math.min(v, child);
+          beta = Math.min(beta, v);
+          if (beta <= alpha) break;
+        }
+      }
+
+      tableKeys[slot] = key;
+      tableMoves[slot] = (short) (bestMove + 1);
+      return v;
+    }
+
+    /**
+     * Lists the empty cells of the board in the order of cellOrder.
+     */
+    private int orderedMoves(int[] nextMoves) {
+      int count = 0;
+      for (int cell : cellOrder) {
+        if (board.at(cell) == Constants.CELL_EMPTY) {
+          nextMoves[count++] = cell;
+        }
+      }
+      return count;
+    }
+
+    /**
+     * Sorts the cells of a board by decreasing number of lines through them,
+     * the cells of the same number keeping their order.
+     */
+    private static int[] orderCells(GridLines lines) {
+      Integer[] cells = new Integer[lines.cellCount];
+      for (int cell = 0; cell < lines.cellCount; cell++) {
+        cells[cell] = cell;
+      }
+      java.util.Arrays.sort(cells, (a, b) -> lines.cellLines[b].length - lines.cellLines[a].length);
+      int[] order = new int[lines.cellCount];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = cells[i];
+      }
+      return order;
+    }
+
+    /**
+     * Gets the value of a win for playerMax found depth plies above the
+     * leaves, quicker wins being worth more.
+     */
+    private static double winScore(int depth) {
+      return WIN_SCORE + depth * WIN_STEP;
+    }
+
+    /**
+     * Swaps a cell, if present, to the front of a list of moves.
+     */
+    private static void moveToFront(int[] moves, int count, int cell) {
+      for (int i = 1; i < count; i++) {
+        if (moves[i] == cell) {
+          moves[i] = moves[0];
+          moves[0] = cell;
+          return;
+        }
+      }
+    }
+}
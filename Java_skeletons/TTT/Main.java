@@ -16,6 +16,8 @@ import java.io.OutputStreamWriter;
  *      Use the init flag if you want this client to initialize the game, that
  *      is, send a starting board without moving for the other client to move
  *      first.
+ *      Use size n and length k to play on an n x n board where k marks in a
+ *      row win; k is n by default.
  */
 public class Main {
     public static void main(String[] args) throws IOException {
@@ -23,6 +25,8 @@ public class Main {
       boolean init = false;
       boolean verbose = false;
       boolean fast = false;
+      int size = GameState.BOARD_SIZE;
+      int length = 0;
 
       for (int i = 0; i < args.length; ++i) {
         String param = args[i];
@@ -33,12 +37,30 @@ public class Main {
           verbose = true;
         } else if (param.equals("fast") || param.equals("f")) {
           fast = true;
+        } else if ((param.equals("size") || param.equals("s")) && i + 1 < args.length) {
+          size = Integer.parseInt(args[++i]);
+        } else if ((param.equals("length") || param.equals("k")) && i + 1 < args.length) {
+          length = Integer.parseInt(args[++i]);
         } else {
           System.err.println("Unknown parameter: '" + args[i] + "'");
           return;
         }
       }
 
+      /* Other boards than the 4x4 one with 4 in a row are played by GridPlayer */
+      if (length == 0) {
+        length = size;
+      }
+      if (size != GameState.BOARD_SIZE || length != GameState.BOARD_SIZE) {
+        if (size < GridLines.MIN_SIZE || size > GridLines.MAX_SIZE
+            || length < GridLines.MIN_LENGTH || length > size) {
+          System.err.println("Unsupported size and length: " + size + " " + length);
+          return;
+        }
+        playGrid(size, length, init, verbose, fast);
+        return;
+      }
+
       /**
        * Start the game by sending the starting board without moves
        * if the parameter "init" is given
@@ -118,4 +140,76 @@ public class Main {
         }
       }
     }
+
+    /**
+     * Plays the game on a board of any size and line length, as main does on
+     * the 4x4 board.
+     */
+    private static void playGrid(int size, int length, boolean init, boolean verbose, boolean fast) throws IOException {
+      if (init) {
+        String message = new GridGameState(size, length).toMessage();
+        System.out.println(message);
+      }
+
+      GridPlayer player = new GridPlayer();
+
+      String input_message;
+      BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+      while ((input_message = br.readLine()) != null) {
+        Deadline deadline = new Deadline(Deadline.getCpuTime() + (fast ? (long) 1e8 : (long) 1e9));
+
+        GridGameState input_state = new GridGameState(input_message, length);
+        if (input_state.getSize() != size) {
+          System.err.println("*** ERROR! *** Expected a board of size " + size + ": '" + input_message + "'");
+          System.exit(134);
+        }
+
+        if (!input_state.toMessage().equals(input_message)) {
+          System.err.println("*** ERROR! ***");
+          System.err.println("Interpreted: '" + input_message + "'");
+          System.err.println("As:      '" + input_state.toMessage() + "'");
+          System.err.println(input_state.toString(input_state.getNextPlayer()));
+          assert(false);
+        }
+
+        if (verbose) {
+          System.err.println(input_state.toMessage());
+          System.err.println(input_state.toString(input_state.getNextPlayer()));
+        }
+
+        if (input_state.getMove().isEOG()) {
+          break;
+        }
+
+        GridGameState output_state = player.play(input_state, deadline);
+
+        if (deadline.timeUntil() < 0) {
+          System.exit(152);
+        }
+
+        Vector<GridGameState> output_states = new Vector<GridGameState>();
+        input_state.findPossibleMoves(output_states);
+        boolean output_state_correct = false;
+        for (int i = 0; i < output_states.size(); ++i)
+          if (output_state.isEqual(output_states.elementAt(i))) {
+            output_state_correct = true;
+            break;
+          }
+        if (!output_state_correct) {
+          System.exit(134);
+        }
+
+        if (verbose) {
+          System.err.println(output_state.toMessage());
+          System.err.println(output_state.toString(input_state.getNextPlayer()));
+        }
+
+        String output_message = output_state.toMessage();
+        System.out.println(output_message);
+
+        if (output_state.getMove().isEOG()) {
+          break;
+        }
+      }
+    }
 }
@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The game-theoretic value of every position of the game, written by
+ * PerfectTableGenerator.
+ *
+ * A position is indexed by the base-3 rank of its cells: the sum of
+ * at(i) * 3^i over the 16 cells, which also tells the next player since X
+ * moves first. Its value, for the next player, takes two bits: WIN, DRAW or
+ * LOSS under perfect play, or UNKNOWN for a board that cannot be reached
+ * (a game goes on after a win or once every line holds both marks).
+ *
+ * The file is a header (the MAGIC number, the VERSION and the number of
+ * ranks, as ints) followed by the values, four to a byte, the lowest rank
+ * in the lowest bits. It is memory-mapped.
+ */
+public class PerfectTable {
+    public static final int MAGIC = 0x54545450;   ///< "TTTP"
+    public static final int VERSION = 1;          ///< changes whenever the rules the values follow change
+
+    public static final int UNKNOWN = 0;   ///< the position cannot be reached
+    public static final int WIN     = 1;   ///< the next player wins
+    public static final int DRAW    = 2;   ///< the game is drawn
+    public static final int LOSS    = 3;   ///< the next player loses
+
+    /** Number of ranks, 3^16 */
+    public static final int RANKS = 43046721;
+    /** Powers of 3, by cell */
+    static final int[] POW3 = new int[GameState.CELL_COUNT];
+
+    static final int HEADER_BYTES = 12;
+
+    private final MappedByteBuffer buffer;
+
+    static {
+      int power = 1;
+      for (int cell = 0; cell < GameState.CELL_COUNT; ++cell) {
+        POW3[cell] = power;
+        power *= 3;
+      }
+      assert(power == RANKS);
+    }
+
+    /**
+     * Maps a table file.
+     *
+     * @param path the file, written by PerfectTableGenerator
+     * @throws IOException if the file cannot be read or is not a table
+     */
+    public PerfectTable(Path path) throws IOException {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC
+          || buffer.getInt(4) != VERSION || buffer.getInt(8) != RANKS) {
+        throw new IOException("Not a perfect play table: " + path);
+      }
+      if (buffer.capacity() < HEADER_BYTES + (RANKS + 3) / 4) {
+        throw new IOException("Truncated perfect play table: " + path);
+      }
+    }
+
+    /**
+     * Gets the base-3 rank of a board.
+     */
+    public static int rank(GameState gameState) {
+      int rank = 0;
+      for (int cell = 0; cell < GameState.CELL_COUNT; ++cell) {
+        rank += gameState.at(cell) * POW3[cell];
+      }
+      return rank;
+    }
+
+    /**
+     * Gets the base-3 rank of a bitboard.
+     */
+    public static int rank(BitGameState gameState) {
+      int rank = 0;
+      for (int x = gameState.getCells(Constants.CELL_X); x != 0; x &= x - 1)
+        rank += Constants.CELL_X * POW3[Integer.numberOfTrailingZeros(x)];
+      for (int o = gameState.getCells(Constants.CELL_O); o != 0; o &= o - 1)
+        rank += Constants.CELL_O * POW3[Integer.numberOfTrailingZeros(o)];
+      return rank;
+    }
+
+    /**
+     * Gets the value of a position for its next player.
+     *
+     * @return WIN, DRAW, LOSS or UNKNOWN
+     */
+    public int lookup(int rank) {
+      return (buffer.get(HEADER_BYTES + (rank >>> 2)) >>> ((rank & 3) * 2)) & 3;
+    }
+
+    /**
+     * Gets the value of a position for its next player.
+     *
+     * @return WIN, DRAW, LOSS or UNKNOWN
+     */
+    public int lookup(GameState gameState) {
+      return lookup(rank(gameState));
+    }
+
+    /**
+     * Chooses a move which keeps the value of a position: one to a position
+     * the opponent loses, or else draws, or else any move.
+     *
+     * @param gameState the position, which must not be over
+     * @return the cell to mark, or -1 if a position is missing from the table
+     */
+    public int bestMove(BitGameState gameState) {
+      int rank = rank(gameState);
+      int player = gameState.getNextPlayer();
+      int best = -1;
+      int bestValue = UNKNOWN;
+      for (int empty = gameState.getEmptyCells(); empty != 0; empty &= empty - 1) {
+        int cell = Integer.numberOfTrailingZeros(empty);
+        int value = lookup(rank + player * POW3[cell]);
+        if (value == UNKNOWN) {
+          return -1;
+        }
+        // The opponent's LOSS is the best, then DRAW, then WIN
+        if (best < 0 || value > bestValue) {
+          best = cell;
+          bestValue = value;
+        }
+      }
+      return best;
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Solves the game and writes the PerfectTable, which Player then uses from
+ * its working directory.
+ *
+ * Every rank is visited level by level, a level being the positions with
+ * the same number of marks. A first pass, from the empty board up, finds the
+ * positions which can be reached: those with a parent, the board without
+ * one of the marks of the last player, which is reached and not over. A
+ * second, retrograde, pass goes from the full boards down: a position which
+ * is over is lost by the next player when the last one completed a line and
+ * drawn otherwise, and any other position takes its value from its
+ * children, which are all on the level below and already solved. A
+ * position only reads the level next to its own and only writes its own
+ * value, so the ranks of a level are shared out among threads without any
+ * locking.
+ *
+ * The rules are those of GameState: the game ends when a player completes a
+ * line, or as a draw when every line holds marks of both players.
+ *
+ * Usage: java PerfectTableGenerator [threads] [file]
+ */
+public class PerfectTableGenerator {
+    private static final int CHUNK = 1 << 20;   ///< ranks given to a thread at a time
+    private static final int REACHED = 4;       ///< value of a reached position not solved yet
+
+    /* Bits of X and O marks of a rank of 8 cells, and its number of marks */
+    private static final int HALF = 6561;
+    private static final int[] HALF_X = new int[HALF];
+    private static final int[] HALF_O = new int[HALF];
+
+    static {
+      for (int half = 0; half < HALF; ++half) {
+        int rest = half;
+        for (int cell = 0; cell < 8; ++cell) {
+          if (rest % 3 == Constants.CELL_X) HALF_X[half] |= 1 << cell;
+          if (rest % 3 == Constants.CELL_O) HALF_O[half] |= 1 << cell;
+          rest /= 3;
+        }
+      }
+    }
+
+    private final byte[] values = new byte[PerfectTable.RANKS];
+    private final ExecutorService pool;
+    private final int threads;
+
+    private PerfectTableGenerator(int threads) {
+      this.threads = threads;
+      this.pool = Executors.newFixedThreadPool(threads);
+    }
+
+    public static void main(String[] args) throws Exception {
+      int threads = (args.length > 0) ? Integer.parseInt(args[0])
+          : Runtime.getRuntime().availableProcessors();
+      String file = (args.length > 1) ? args[1] : Player.tableFile;
+
+      long start = System.nanoTime();
+      PerfectTableGenerator generator = new PerfectTableGenerator(threads);
+      generator.solve();
+      generator.pool.shutdown();
+      System.err.printf("Solved in %.1f s with %d threads%n",
+          (System.nanoTime() - start) / 1e9, threads);
+      generator.write(file);
+      System.err.println("Wrote " + file);
+    }
+
+    private static int xMarks(int rank) {
+      return HALF_X[rank % HALF] | (HALF_X[rank / HALF] << 8);
+    }
+
+    private static int oMarks(int rank) {
+      return HALF_O[rank % HALF] | (HALF_O[rank / HALF] << 8);
+    }
+
+    /**
+     * Runs both passes over every level.
+     */
+    private void solve() throws Exception {
+      values[0] = REACHED;
+      for (int level = 1; level <= GameState.CELL_COUNT; ++level) {
+        final int marks = level;
+        forEachChunk((from, to) -> reach(marks, from, to));
+      }
+      for (int level = GameState.CELL_COUNT; level >= 0; --level) {
+        final int marks = level;
+        forEachChunk((from, to) -> retrograde(marks, from, to));
+      }
+
+      long[] counts = new long[REACHED];
+      for (byte value : values)
+        counts[value]++;
+      System.err.printf("%d positions: %d won, %d drawn, %d lost by the next player%n",
+          counts[PerfectTable.WIN] + counts[PerfectTable.DRAW] + counts[PerfectTable.LOSS],
+          counts[PerfectTable.WIN], counts[PerfectTable.DRAW], counts[PerfectTable.LOSS]);
+    }
+
+    private interface RankRange {
+      void run(int from, int to);
+    }
+
+    /**
+     * Runs a task over all the ranks, a chunk at a time, on every thread,
+     * and waits for it to finish.
+     */
+    private void forEachChunk(RankRange task) throws Exception {
+      List<Future<?>> running = new ArrayList<Future<?>>();
+      for (int from = 0; from < PerfectTable.RANKS; from += CHUNK) {
+        final int start = from;
+        final int end = Math.min(from + CHUNK, PerfectTable.RANKS);
+        running.add(pool.submit(() -> task.run(start, end)));
+      }
+      for (Future<?> future : running)
+        future.get();
+    }
+
+    /**
+     * Marks the reached positions of a level among some ranks.
+     */
+    private void reach(int level, int from, int to) {
+      for (int rank = from; rank < to; ++rank) {
+        int x = xMarks(rank);
+        int o = oMarks(rank);
+        int xCount = Integer.bitCount(x);
+        int oCount = Integer.bitCount(o);
+        if (xCount + oCount != level || (xCount != oCount && xCount != oCount + 1))
+          continue;
+        // The last player is X when X has one more mark
+        int last = (xCount > oCount) ? Constants.CELL_X : Constants.CELL_O;
+        int lastMarks = (last == Constants.CELL_X) ? x : o;
+        for (int bits = lastMarks; bits != 0; bits &= bits - 1) {
+          int cell = Integer.numberOfTrailingZeros(bits);
+          int parent = rank - last * PerfectTable.POW3[cell];
+          if (values[parent] != REACHED)
+            continue;
+          int parentX = (last == Constants.CELL_X) ? x & ~(1 << cell) : x;
+          int parentO = (last == Constants.CELL_O) ? o & ~(1 << cell) : o;
+          // The parent's last player is the other one
+          int parentLast = (last == Constants.CELL_X) ? parentO : parentX;
+          if (!BitGameState.isWin(parentLast) && !BitGameState.isDraw(parentX, parentO)) {
+            values[rank] = REACHED;
+            break;
+          }
+        }
+      }
+    }
+
+    /**
+     * Solves the reached positions of a level among some ranks.
+     */
+    private void retrograde(int level, int from, int to) {
+      for (int rank = from; rank < to; ++rank) {
+        if (values[rank] != REACHED)
+          continue;
+        int x = xMarks(rank);
+        int o = oMarks(rank);
+        if (Integer.bitCount(x) + Integer.bitCount(o) != level)
+          continue;
+        int next = (Integer.bitCount(x) == Integer.bitCount(o)) ? Constants.CELL_X : Constants.CELL_O;
+        int lastMarks = (next == Constants.CELL_X) ? o : x;
+        if (BitGameState.isWin(lastMarks)) {
+          values[rank] = PerfectTable.LOSS;
+          continue;
+        }
+        if (BitGameState.isDraw(x, o)) {
+          values[rank] = PerfectTable.DRAW;
+          continue;
+        }
+        int value = PerfectTable.LOSS;
+        for (int empty = ~(x | o) & BitGameState.FULL_BOARD; empty != 0; empty &= empty - 1) {
+          int cell = Integer.numberOfTrailingZeros(empty);
+          int child = values[rank + next * PerfectTable.POW3[cell]];
+          if (child == PerfectTable.LOSS) {
+            value = PerfectTable.WIN;
+            break;
+          }
+          if (child == PerfectTable.DRAW)
+            value = PerfectTable.DRAW;
+        }
+        values[rank] = (byte) value;
+      }
+    }
+
+    /**
+     * Writes the values, four to a byte, after the header.
+     */
+    private void write(String file) throws IOException {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(Paths.get(file))))) {
+        out.writeInt(PerfectTable.MAGIC);
+        out.writeInt(PerfectTable.VERSION);
+        out.writeInt(PerfectTable.RANKS);
+        for (int rank = 0; rank < PerfectTable.RANKS; rank += 4) {
+          int packed = 0;
+          for (int i = 0; i < 4 && rank + i < PerfectTable.RANKS; ++i)
+            packed |= values[rank + i] << (2 * i);
+          out.writeByte(packed);
+        }
+      }
+    }
+}
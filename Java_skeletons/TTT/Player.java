@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class Player {
@@ -12,12 +15,48 @@ public class Player {
      */
 
     private static final int depthMax = 3;
+    static final String tableFile = "perfect4x4.bin";   ///< perfect play table, used when the file exists
+    private static final int resultBits = 12;   ///< log2 of the entries of the search result table
+    private static final double solveShare = 0.5;   ///< part of the time left an exact solve may be expected to take
+    private static final int solveFactor = 8;        ///< nodes of an exact solve per 2^empty cells, measured at most 7
     private int playerMax;
-    private GameState nextMove;
+    private BitGameState nextMove;
+    private long nodes;
+
+    /* Results of the search of the current move, for playerMax, indexed by a
+     * hash of the canonical key of the position so that symmetric positions
+     * share them: keys, depths (0 for an empty slot), bounds and values */
+    private static final int BOUND_EXACT = 0;
+    private static final int BOUND_LOWER = 1;   ///< the value is at least the one stored
+    private static final int BOUND_UPPER = 2;   ///< the value is at most the one stored
+    private final int[] resultKeys = new int[1 << resultBits];
+    private final byte[] resultDepths = new byte[1 << resultBits];
+    private final byte[] resultBounds = new byte[1 << resultBits];
+    private final float[] resultValues = new float[1 << resultBits];
+
+    private final PerfectTable table = loadTable();
+
+    /* The exact solver, created when first needed, and the nodes searched
+     * per nanosecond, measured on the searches of the previous moves */
+    private EndgameSolver solver;
+    private double nodeRate;
+
+    private static PerfectTable loadTable() {
+      if (!Files.exists(Paths.get(tableFile))) {
+        return null;
+      }
+      try {
+        return new PerfectTable(Paths.get(tableFile));
+      } catch (IOException e) {
+        System.err.println("Ignoring perfect play table: " + e.getMessage());
+        return null;
+      }
+    }
 
     public GameState play(final GameState gameState, final Deadline deadline) {
-        Vector<GameState> nextStates = new Vector<GameState>();
-        gameState.findPossibleMoves(nextStates);
+        BitGameState board = new BitGameState(gameState);
+        Vector<BitGameState> nextStates = new Vector<BitGameState>();
+        board.findPossibleMoves(nextStates);
 
 
         if (nextStates.size() == 0) {
@@ -30,11 +69,40 @@ public class Player {
          * the best next state. This skeleton returns a random move instead.
          */
 
+        // With the table every position is solved, and a move keeping its
+        // value is played; alphabeta is only used without it
+        if (table != null) {
+          int best = table.bestMove(board);
+          if (best >= 0) {
+            return new GameState(gameState, board.toMove(best));
+          }
+        }
+
         playerMax = gameState.getNextPlayer();
-        //minimax(gameState,depthMax);
-        alphabeta(gameState, depthMax, -Float.MAX_VALUE, Float.MAX_VALUE);
+        nodes = 0;
+        Arrays.fill(resultDepths, (byte) 0);
+        long start = Deadline.getCpuTime();
+        //minimax(board,depthMax);
+        alphabeta(board, depthMax, -Float.MAX_VALUE, Float.MAX_VALUE);
+        measureRate(nodes, Deadline.getCpuTime() - start);
+
+        // Once the game left is small enough to be searched to the end in the
+        // time left, the move is solved rather than guessed; the heuristic
+        // move is kept among the moves of the same value, and played if the
+        // solver runs out of time
+        int empty = Integer.bitCount(board.getEmptyCells());
+        long budget = deadline.timeUntil();
+        if (nodeRate > 0 && (double) solveFactor * (1 << empty) < nodeRate * budget * solveShare) {
+          if (solver == null) solver = new EndgameSolver();
+          start = Deadline.getCpuTime();
+          int solved = solver.solve(board, nextMove.getMove().at(0), deadline, budget / 10);
+          measureRate(solver.getNodes(), Deadline.getCpuTime() - start);
+          if (solved >= 0) {
+            return new GameState(gameState, board.toMove(solved));
+          }
+        }
 
-        return nextMove;
+        return new GameState(gameState, nextMove.getMove());
 
         //Random random = new Random();
         //return nextStates.elementAt(random.nextInt(nextStates.size()));
@@ -45,10 +113,10 @@ public class Player {
      *  MINIMAX
      *
      */
-    private float minimax(GameState gameState, int depth){
+    private float minimax(BitGameState gameState, int depth){
       // state : the current state we are analyzing
       // returns a heuristic value that approximates a utility function of the state
-      Vector<GameState> nextStates = new Vector<GameState>();
+      Vector<BitGameState> nextStates = new Vector<BitGameState>();
       gameState.findPossibleMoves(nextStates);
       int player = gameState.getNextPlayer();
 
@@ -86,14 +154,16 @@ public class Player {
      *  ALPHABETA
      *
      */
-    private float alphabeta(GameState gameState, int depth, float alpha, float beta){
+    private float alphabeta(BitGameState gameState, int depth, float alpha, float beta){
       // state : the current state we are analyzing
       // alpha : the current best value achievable by A
       // beta : the current best value achievable by B
       // returns the minimax value of the state
 
-      Vector<GameState> nextStates = new Vector<GameState>();
-      gameState.findPossibleMoves(nextStates);
+      nodes++;
+      // Moves symmetric to another one lead to positions of the same value
+      Vector<BitGameState> nextStates = new Vector<BitGameState>();
+      gameState.findUniqueMoves(nextStates);
       int player = gameState.getNextPlayer();
 
       float v;
@@ -101,9 +171,24 @@ public class Player {
       if (nextStates.size() == 0 || depth == 0){
         v = evalNbrMarkDef(gameState);
         //System.err.println(v);
+        return v;
+      }
+
+      // The root has to find its move, every other node may be settled by
+      // the result of a symmetric position
+      int key = gameState.getCanonicalKey();
+      int slot = (key * 0x9E3779B1) >>> (32 - resultBits);
+      if (depth != depthMax && resultDepths[slot] >= depth && resultKeys[slot] == key) {
+        float stored = resultValues[slot];
+        if (resultBounds[slot] == BOUND_EXACT) return stored;
+        if (resultBounds[slot] == BOUND_LOWER) alpha = Math.max(alpha, stored);
+        if (resultBounds[slot] == BOUND_UPPER) beta = Math.min(beta, stored);
+        if (beta <= alpha) return stored;
       }
+      float alphaOrig = alpha;
+      float betaOrig = beta;
 
-      else if (player == playerMax) {
+      if (player == playerMax) {
           v = -Float.MAX_VALUE;
 
           //Let's initialize nextMove as the first child of the tree
@@ -125,138 +210,90 @@ public class Player {
             if (beta <= alpha) break;
           }
         }
+
+      resultKeys[slot] = key;
+      resultDepths[slot] = (byte) depth;
+      resultBounds[slot] = (byte) ((v <= alphaOrig) ? BOUND_UPPER
+          : (v >= betaOrig) ? BOUND_LOWER : BOUND_EXACT);
+      resultValues[slot] = v;
       return v;
     }
 
-
-
     /**
-     *  EVALSIMPLE
-     *
+     * Gets the number of nodes searched for the last move.
      */
-    private float evalSimple(GameState gameState){
-      int player = playerMax;
-      float eval = 0;
-
-      //Sum the marks of the player in the rows
-      for (int row = 0; row < gameState.BOARD_SIZE; row++){
-        for (int col = 0; col < gameState.BOARD_SIZE; col++){
-            if (gameState.at(row, col) == player) eval++;
-        }
-      }
-
-      //Sum the marks of the player in the Columns
-      for (int col = 0; col < gameState.BOARD_SIZE; col++){
-        for (int row = 0; row < gameState.BOARD_SIZE; row++){
-          if (gameState.at(row, col) == player) eval++;
-        }
-      }
-
-      //Sum the marks of the player in the diagonal
-      for (int pos = 0; pos < gameState.BOARD_SIZE; pos++){
-        if (gameState.at(pos, pos) == player) eval++;
-      }
-
-      //Sum the marks of the player in the anti-diagonal
-      for (int pos1 = 0; pos1 < gameState.BOARD_SIZE; pos1++){
-        int pos2 = gameState.BOARD_SIZE-1-pos1;
-        if (gameState.at(pos1,pos2) == player) eval++;
-      }
-
-      return eval;
+    public long getNodes() {
+      return nodes;
     }
 
-    private float evalNbrMark(GameState gameState){
-      int player = playerMax;
-      double eval = 0;
-      int counter = 0;
+    /**
+     * Averages the node rate of a search into nodeRate, unless it was too
+     * short to be timed.
+     */
+    private void measureRate(long searched, long elapsed) {
+      if (elapsed < 1000000) return;
+      double rate = (double) searched / elapsed;
+      nodeRate = (nodeRate == 0) ? rate : (nodeRate + rate) / 2;
+    }
 
-      //Sum the marks of the player in the rows
-      for (int row = 0; row < gameState.BOARD_SIZE; row++){
-        counter = 0;
-        for (int col = 0; col < gameState.BOARD_SIZE; col++){
-            if (gameState.at(row, col) == player) counter++;
-        }
-        eval = eval + Math.pow(10,counter);
-      }
 
-      //Sum the marks of the player in the Columns
-      for (int col = 0; col < gameState.BOARD_SIZE; col++){
-        counter = 0;
-        for (int row = 0; row < gameState.BOARD_SIZE; row++){
-          if (gameState.at(row, col) == player) counter++;
-        }
-        eval = eval + Math.pow(10,counter);
-      }
 
-      //Sum the marks of the player in the diagonal
-      counter = 0;
-      for (int pos = 0; pos < gameState.BOARD_SIZE; pos++){
-        if (gameState.at(pos, pos) == player) counter++;
-      }
-      eval = eval + Math.pow(10,counter);
+    /**
+     *  EVALSIMPLE
+     *
+     */
+    private float evalSimple(BitGameState gameState){
+      return (float) evalLines(gameState, SIMPLE_SCORES[playerMax]);
+    }
 
-      //Sum the marks of the player in the anti-diagonal
-      counter = 0;
-      for (int pos1 = 0; pos1 < gameState.BOARD_SIZE; pos1++){
-        int pos2 = gameState.BOARD_SIZE-1-pos1;
-        if (gameState.at(pos1,pos2) == player) counter++;
-      }
-      eval = eval + Math.pow(10,counter);
+    private float evalNbrMark(BitGameState gameState){
+      return (float) evalLines(gameState, NBR_MARK_SCORES[playerMax]);
+    }
 
-      float evalOut = (float)eval;
-      return evalOut;
+    private float evalNbrMarkDef(BitGameState gameState){
+      return (float) evalLines(gameState, NBR_MARK_DEF_SCORES[playerMax]);
     }
 
-    private float evalNbrMarkDef(GameState gameState){
-      int player = playerMax;
+    /**
+     * Sums the scores of the lines, in the order of the rows, the columns,
+     * the diagonal and the anti-diagonal.
+     *
+     * @param scores the score of a line by its code, see BitGameState#getLineCode
+     */
+    private static double evalLines(BitGameState gameState, double[] scores){
       double eval = 0;
-      int counter = 0;
-      int holes = 1;
-
-      //Sum the marks of the player in the rows
-      for (int row = 0; row < gameState.BOARD_SIZE; row++){
-        counter = 0;
-        holes = 1;
-        for (int col = 0; col < gameState.BOARD_SIZE; col++){
-          if (gameState.at(row, col) != player) holes = 0;
-          if (gameState.at(row, col) == player) counter++;
-        }
-        eval = eval + Math.pow(10,counter)*holes;
+      for (int line = 0; line < BitGameState.LINE_COUNT; line++){
+        eval = eval + scores[gameState.getLineCode(line)];
       }
+      return eval;
+    }
 
-      //Sum the marks of the player in the Columns
-      for (int col = 0; col < gameState.BOARD_SIZE; col++){
-        counter = 0;
-        holes = 1;
-        for (int row = 0; row < gameState.BOARD_SIZE; row++){
-          if (gameState.at(row, col) != player) holes = 0;
-          if (gameState.at(row, col) == player) counter++;
+    /* Scores of a line by its code, for each player, of the evaluation
+     * functions: the player's marks for evalSimple, 10^marks for evalNbrMark,
+     * and 10^4 for a line full of the player's marks, 0 otherwise, for
+     * evalNbrMarkDef. The sums are made in the same order as when the
+     * functions read the board cell by cell, so their values are the same. */
+    private static final double[][] SIMPLE_SCORES = new double[Constants.CELL_O + 1][];
+    private static final double[][] NBR_MARK_SCORES = new double[Constants.CELL_O + 1][];
+    private static final double[][] NBR_MARK_DEF_SCORES = new double[Constants.CELL_O + 1][];
+
+    static {
+      for (int player = Constants.CELL_X; player <= Constants.CELL_O; player++){
+        SIMPLE_SCORES[player] = new double[BitGameState.LINE_CODES];
+        NBR_MARK_SCORES[player] = new double[BitGameState.LINE_CODES];
+        NBR_MARK_DEF_SCORES[player] = new double[BitGameState.LINE_CODES];
+        for (int code = 0; code < BitGameState.LINE_CODES; code++){
+          int counter = 0;
+          int holes = 1;
+          for (int rest = code, pos = 0; pos < BitGameState.BOARD_SIZE; pos++, rest /= 3){
+            if (rest % 3 != player) holes = 0;
+            if (rest % 3 == player) counter++;
+          }
+          SIMPLE_SCORES[player][code] = counter;
+          NBR_MARK_SCORES[player][code] = Math.pow(10,counter);
+          NBR_MARK_DEF_SCORES[player][code] = Math.pow(10,counter)*holes;
         }
-        eval = eval + Math.pow(10,counter)*holes;
-      }
-
-      //Sum the marks of the player in the diagonal
-      counter = 0;
-      holes = 1;
-      for (int pos = 0; pos < gameState.BOARD_SIZE; pos++){
-        if (gameState.at(pos, pos) != player) holes = 0;
-        if (gameState.at(pos, pos) == player) counter++;
-      }
-      eval = eval + Math.pow(10,counter)*holes;
-
-      //Sum the marks of the player in the anti-diagonal
-      counter = 0;
-      holes = 1;
-      for (int pos1 = 0; pos1 < gameState.BOARD_SIZE; pos1++){
-        int pos2 = gameState.BOARD_SIZE-1-pos1;
-        if (gameState.at(pos1, pos2) != player) holes = 0;
-        if (gameState.at(pos1, pos2) == player) counter++;
       }
-      eval = eval + Math.pow(10,counter)*holes;
-
-      float evalOut = (float)eval;
-      return evalOut;
     }
 
 }
@@ -0,0 +1,135 @@
+/**
+ * The symmetries of the 4x4 board, that is the 32 permutations of the cells
+ * which map the 10 winning lines onto themselves.
+ *
+ * They are the 8 rotations and reflections of the square, combined with the
+ * permutation which swaps the inner and outer rows and columns at once
+ * (0 1 2 3 to 1 0 3 2 on both axes). They are found at start-up by trying
+ * every pair of row and column permutations, with and without a
+ * transposition, and keeping those which map every line onto a line. Two
+ * positions which are images of each other under a symmetry have the same
+ * value, so a search only needs to look at one of them.
+ */
+public class Symmetry {
+    public static final int COUNT = 32;
+
+    /** PERMUTATIONS[s][cell] is the image of cell under symmetry s */
+    static final int[][] PERMUTATIONS = new int[COUNT][];
+    /** INVERSES[s][cell] is the cell whose image under symmetry s is cell */
+    static final int[][] INVERSES = new int[COUNT][];
+
+    /* Images of the low and high 8 cells of a mask, for every symmetry */
+    private static final int[][][] BYTE_IMAGES = new int[COUNT][2][256];
+
+    static {
+      final int n = GameState.BOARD_SIZE;
+
+      // All the orders of n values
+      java.util.List<int[]> orders = new java.util.ArrayList<int[]>();
+      for (int a = 0; a < n; ++a)
+        for (int b = 0; b < n; ++b)
+          for (int c = 0; c < n; ++c)
+            for (int d = 0; d < n; ++d)
+              if (a != b && a != c && a != d && b != c && b != d && c != d)
+                orders.add(new int[] { a, b, c, d });
+
+      java.util.HashSet<Integer> lineMasks = new java.util.HashSet<Integer>();
+      for (int mask : BitGameState.LINE_MASKS)
+        lineMasks.add(mask);
+
+      int count = 0;
+      for (int transpose = 0; transpose < 2; ++transpose)
+        for (int[] rows : orders)
+          for (int[] cols : orders) {
+            int[] permutation = new int[GameState.CELL_COUNT];
+            for (int cell = 0; cell < GameState.CELL_COUNT; ++cell) {
+              int row = rows[GameState.cellToRow(cell)];
+              int col = cols[GameState.cellToCol(cell)];
+              permutation[cell] = (transpose == 0) ? GameState.rowColumnToCell(row, col)
+                  : GameState.rowColumnToCell(col, row);
+            }
+
+            boolean keepsLines = true;
+            for (int mask : BitGameState.LINE_MASKS)
+              keepsLines &= lineMasks.contains(transform(permutation, mask));
+            if (keepsLines) {
+              // Every permutation comes from a single choice of rows, columns
+              // and transposition, so none is found twice
+              PERMUTATIONS[count++] = permutation;
+            }
+          }
+      assert(count == COUNT);
+
+      for (int s = 0; s < COUNT; ++s) {
+        INVERSES[s] = new int[GameState.CELL_COUNT];
+        for (int cell = 0; cell < GameState.CELL_COUNT; ++cell)
+          INVERSES[s][PERMUTATIONS[s][cell]] = cell;
+        for (int b = 0; b < 2; ++b)
+          for (int value = 0; value < 256; ++value)
+            BYTE_IMAGES[s][b][value] = transform(PERMUTATIONS[s], value << (8 * b));
+      }
+    }
+
+    private static int transform(int[] permutation, int cells) {
+      int image = 0;
+      for (int bits = cells; bits != 0; bits &= bits - 1)
+        image |= 1 << permutation[Integer.numberOfTrailingZeros(bits)];
+      return image;
+    }
+
+    /**
+     * Gets the image of a set of cells, one bit per cell, under a symmetry.
+     *
+     * @param symmetry the symmetry index, from 0 to COUNT - 1
+     * @param cells the set of cells
+     */
+    public static int transform(int symmetry, int cells) {
+      int[][] images = BYTE_IMAGES[symmetry];
+      return images[0][cells & 0xff] | images[1][(cells >>> 8) & 0xff];
+    }
+
+    /**
+     * Finds the symmetry mapping a position to its canonical form, which is the
+     * image with the smallest X cells and then the smallest O cells.
+     *
+     * @param xCells the cells of player X
+     * @param oCells the cells of player O
+     * @return the index of the symmetry
+     */
+    public static int canonicalSymmetry(int xCells, int oCells) {
+      int best = 0;
+      int bestX = xCells;
+      int bestO = oCells;
+      for (int s = 1; s < COUNT; ++s) {
+        int x = transform(s, xCells);
+        if (x > bestX) {
+          continue;
+        }
+        int o = transform(s, oCells);
+        if (x < bestX || o < bestO) {
+          best = s;
+          bestX = x;
+          bestO = o;
+        }
+      }
+      return best;
+    }
+
+    /**
+     * Lists the symmetries which leave a position unchanged.
+     *
+     * @param xCells the cells of player X
+     * @param oCells the cells of player O
+     * @param symmetries an array of at least COUNT elements receiving them
+     * @return the number of symmetries stored
+     */
+    public static int stabilizer(int xCells, int oCells, int[] symmetries) {
+      int count = 0;
+      for (int s = 0; s < COUNT; ++s) {
+        if (transform(s, xCells) == xCells && transform(s, oCells) == oCells) {
+          symmetries[count++] = s;
+        }
+      }
+      return count;
+    }
+}
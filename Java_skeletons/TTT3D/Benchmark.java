@@ -0,0 +1,89 @@
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Measures how the searches scale with the number of threads.
+ *
+ * A fixed set of positions, reached by random opening moves, is searched by
+ * players using 1, 2, 4... threads. The node rate and the depth reached are
+ * reported for every thread count of the alphabeta Player, together with
+ * the nodes its single thread search needs to complete each depth, and the
+ * playout rate for every thread count of the MonteCarloPlayer.
+ *
+ * Usage: java Benchmark [max threads] [milliseconds per move] [positions]
+ */
+public class Benchmark {
+  public static void main(String[] args) {
+    int maxThreads = (args.length > 0) ? Integer.parseInt(args[0])
+        : Runtime.getRuntime().availableProcessors();
+    long moveTime = (args.length > 1) ? Long.parseLong(args[1]) : 1000;
+    int positionCount = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+
+    Vector<GameState> positions = randomPositions(positionCount, new Random(1));
+
+    long[] depthNodes = new long[GameState.CELL_COUNT + 1];
+    int[] depthCounts = new int[GameState.CELL_COUNT + 1];
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      Player player = new Player(threads);
+      long nodes = 0;
+      long depths = 0;
+      long start = System.nanoTime();
+      for (GameState position : positions) {
+        Deadline deadline = new Deadline(Deadline.getCpuTime() + moveTime * 1000000);
+        player.play(position, deadline);
+        nodes += player.getNodes();
+        depths += player.getDepth();
+        for (int depth = 1; threads == 1 && player.getDepthNodes(depth) > 0; depth++) {
+          depthNodes[depth] += player.getDepthNodes(depth);
+          depthCounts[depth]++;
+        }
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.err.printf("threads %2d: %10.0f nodes/s, %12d nodes, average depth %.2f%n",
+          threads, nodes / seconds, nodes, (double) depths / positions.size());
+    }
+    // Nodes the single thread search needed to complete every depth
+    for (int depth = 1; depthCounts[depth] > 0; depth++) {
+      System.err.printf("depth %2d: %12.0f nodes on average, over %d positions%n",
+          depth, (double) depthNodes[depth] / depthCounts[depth], depthCounts[depth]);
+    }
+
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      MonteCarloPlayer player = new MonteCarloPlayer(threads);
+      long playouts = 0;
+      long start = System.nanoTime();
+      for (GameState position : positions) {
+        Deadline deadline = new Deadline(Deadline.getCpuTime() + moveTime * 1000000);
+        player.play(position, deadline);
+        playouts += player.getPlayouts();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.err.printf("mcts threads %2d: %10.0f playouts/s, %12d playouts%n",
+          threads, playouts / seconds, playouts);
+    }
+  }
+
+  /**
+   * Plays random opening moves to get positions which are not over.
+   */
+  static Vector<GameState> randomPositions(int count, Random random) {
+    Vector<GameState> positions = new Vector<GameState>();
+    while (positions.size() < count) {
+      GameState state = new GameState();
+      int plies = 4 + random.nextInt(12);
+      Vector<GameState> next = new Vector<GameState>();
+      for (int i = 0; i < plies; i++) {
+        state.findPossibleMoves(next);
+        if (next.isEmpty()) {
+          break;
+        }
+        state = next.elementAt(random.nextInt(next.size()));
+      }
+      state.findPossibleMoves(next);
+      if (!next.isEmpty()) {
+        positions.add(state);
+      }
+    }
+    return positions;
+  }
+}
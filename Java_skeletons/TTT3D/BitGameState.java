@@ -0,0 +1,754 @@
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+/**
+ * Represents a game state with a 4x4x4 board, stored as one 64-bit word per
+ * player.
+ *
+ * Cells are numbered as in GameState, and bit i of a player's word is set
+ * when that player has a mark in cell i. The 76 winning lines are kept in a
+ * static table of masks, so win, draw and legality tests are a few AND and
+ * compare operations instead of a walk over every line.
+ *
+ * findPossibleMoves and toMessage give exactly the same results as the ones
+ * in GameState.
+ *
+ * The number of X and O marks on every line is kept up to date when a move
+ * is done or undone, together with the heuristic score of the board for
+ * both players, so evaluating a board costs nothing more than a field read.
+ * So are the cells where each player would complete a line, which tell a
+ * search at once about wins and forced blocks.
+ *
+ * Besides the GameState interface, a board can be used in place by a search:
+ * getMoves lists the legal cells into a caller-owned array, and apply and
+ * undo make and unmake moves on a move stack without allocating anything.
+ * A Zobrist key of the position is updated along with every move.
+ */
+public class BitGameState {
+  public static final int BOARD_SIZE = GameState.BOARD_SIZE;
+  public static final int CELL_COUNT = GameState.CELL_COUNT;
+  public static final int LINE_COUNT = 76;
+
+  /** Cell indexes of every winning line */
+  static final int[][] LINES = new int[LINE_COUNT][];
+  /** Bit mask of every winning line */
+  static final long[] LINE_MASKS = new long[LINE_COUNT];
+  /** Indexes of the lines going through every cell */
+  static final int[][] CELL_LINES = new int[CELL_COUNT][];
+
+  /**
+   * Score of a line for a player, indexed by the number of marks of the
+   * player and of the opponent on the line. A line scores
+   * marks * 80^(2 * marks) while the opponent has no mark on it, and
+   * -80^(2 * BOARD_SIZE - 1) when the opponent is one mark from completing it.
+   */
+  static final long[][] LINE_SCORES = new long[BOARD_SIZE + 1][BOARD_SIZE + 1];
+
+  /** Zobrist keys of every cell for each player, and of O being next */
+  static final long[][] ZOBRIST_CELLS = new long[Constants.CELL_O + 1][CELL_COUNT];
+  static final long ZOBRIST_O_NEXT;
+
+  static {
+    int lineCount = 0;
+    for (int dLay = -1; dLay <= 1; ++dLay)
+      for (int dRow = -1; dRow <= 1; ++dRow)
+        for (int dCol = -1; dCol <= 1; ++dCol) {
+          // Only keep one of the two opposite directions
+          if (dLay * 9 + dRow * 3 + dCol <= 0) {
+            continue;
+          }
+          for (int cell = 0; cell < CELL_COUNT; ++cell) {
+            int row = GameState.cellToRow(cell);
+            int col = GameState.cellToCol(cell);
+            int lay = GameState.cellToLay(cell);
+            int endRow = row + dRow * (BOARD_SIZE - 1);
+            int endCol = col + dCol * (BOARD_SIZE - 1);
+            int endLay = lay + dLay * (BOARD_SIZE - 1);
+            if (endRow < 0 || endRow >= BOARD_SIZE || endCol < 0
+                || endCol >= BOARD_SIZE || endLay < 0 || endLay >= BOARD_SIZE) {
+              continue;
+            }
+            int[] line = new int[BOARD_SIZE];
+            for (int i = 0; i < BOARD_SIZE; ++i) {
+              line[i] = GameState.rowColumnLayerToCell(row + dRow * i,
+                  col + dCol * i, lay + dLay * i);
+              LINE_MASKS[lineCount] |= 1L << line[i];
+            }
+            LINES[lineCount++] = line;
+          }
+        }
+    assert(lineCount == LINE_COUNT);
+
+    int[] linesPerCell = new int[CELL_COUNT];
+    for (int l = 0; l < LINE_COUNT; ++l)
+      for (int cell : LINES[l])
+        linesPerCell[cell]++;
+    for (int cell = 0; cell < CELL_COUNT; ++cell) {
+      CELL_LINES[cell] = new int[linesPerCell[cell]];
+      linesPerCell[cell] = 0;
+    }
+    for (int l = 0; l < LINE_COUNT; ++l)
+      for (int cell : LINES[l])
+        CELL_LINES[cell][linesPerCell[cell]++] = l;
+
+    for (int own = 0; own <= BOARD_SIZE; ++own) {
+      LINE_SCORES[own][0] = own * pow(80, 2 * own);
+    }
+    LINE_SCORES[0][BOARD_SIZE - 1] = -pow(80, 2 * BOARD_SIZE - 1);
+
+    // A fixed seed keeps keys the same from one run to the next
+    java.util.Random random = new java.util.Random(0x3D);
+    for (int player = Constants.CELL_X; player <= Constants.CELL_O; ++player)
+      for (int cell = 0; cell < CELL_COUNT; ++cell)
+        ZOBRIST_CELLS[player][cell] = random.nextLong();
+    ZOBRIST_O_NEXT = random.nextLong();
+  }
+
+  private static long pow(long base, int exponent) {
+    long result = 1;
+    for (int i = 0; i < exponent; ++i)
+      result *= base;
+    return result;
+  }
+
+  private long xCells;
+  private long oCells;
+  private byte[] xLineCounts = new byte[LINE_COUNT];
+  private byte[] oLineCounts = new byte[LINE_COUNT];
+  /* Cells completing a line for X and for O, and for every player and cell
+   * (at (player - 1) * CELL_COUNT + cell) the number of such lines */
+  private long xWinCells;
+  private long oWinCells;
+  private byte[] winLineCounts = new byte[2 * CELL_COUNT];
+  private long xScore;
+  private long oScore;
+  private int deadLines;
+  private long cellsKey;
+  private int nextPlayer;
+  private Move lastMove;
+
+  /* Moves made with apply, as cells and move types, most recent last */
+  private int[] appliedCells;
+  private int[] appliedTypes;
+  private int appliedCount;
+
+  /**
+   * Initializes the board to the starting position.
+   */
+  public BitGameState() {
+    this.lastMove = new Move(Move.MOVE_BOG);
+    // Player X starts
+    this.nextPlayer = Constants.CELL_X;
+  }
+
+  /**
+   * Constructs a board from a message string.
+   *
+   * @param pMessage the compact string representation of the state
+   */
+  public BitGameState(final String pMessage) {
+    StringTokenizer st = new StringTokenizer(pMessage);
+
+    String board, last_move, next_player;
+    board = st.nextToken();
+    last_move = st.nextToken();
+    next_player = st.nextToken();
+
+    assert(board.length() == CELL_COUNT);
+    assert(next_player.length() == 1);
+
+    // Parse the board
+    for (int i = 0; i < CELL_COUNT; ++i) {
+      if (board.charAt(i) == Constants.MESSAGE_SYMBOLS[Constants.CELL_X]) {
+        place(i, Constants.CELL_X);
+      }
+      else if (board.charAt(i) == Constants.MESSAGE_SYMBOLS[Constants.CELL_O]) {
+        place(i, Constants.CELL_O);
+      }
+      else
+        assert(board.charAt(i) == Constants.MESSAGE_SYMBOLS[Constants.CELL_EMPTY]);
+    }
+
+    // Parse last move
+    this.lastMove = new Move(last_move);
+
+    // Parse next player
+    this.nextPlayer = Constants.CELL_EMPTY;
+    for (int player = Constants.CELL_EMPTY; player <= Constants.CELL_O; ++player) {
+      if (next_player.charAt(0) == Constants.MESSAGE_SYMBOLS[player]) {
+        this.nextPlayer = player;
+      }
+    }
+  }
+
+  /**
+   * Constructs a bitboard copy of a game state.
+   *
+   * @param gameState the game state to copy
+   */
+  public BitGameState(final GameState gameState) {
+    for (int i = 0; i < CELL_COUNT; ++i) {
+      if (gameState.at(i) != Constants.CELL_EMPTY) {
+        place(i, gameState.at(i));
+      }
+    }
+    this.lastMove = gameState.getMove();
+    this.nextPlayer = gameState.getNextPlayer();
+  }
+
+  /**
+   * Constructs a board which is the result of applying move move to board
+   * gameState.
+   *
+   * @param gameState the starting board position
+   * @param move the movement to perform
+   */
+  public BitGameState(final BitGameState gameState, final Move move) {
+    this.xCells = gameState.xCells;
+    this.oCells = gameState.oCells;
+    this.xLineCounts = gameState.xLineCounts.clone();
+    this.oLineCounts = gameState.oLineCounts.clone();
+    this.xWinCells = gameState.xWinCells;
+    this.oWinCells = gameState.oWinCells;
+    this.winLineCounts = gameState.winLineCounts.clone();
+    this.xScore = gameState.xScore;
+    this.oScore = gameState.oScore;
+    this.deadLines = gameState.deadLines;
+    this.cellsKey = gameState.cellsKey;
+    this.nextPlayer = gameState.nextPlayer;
+    this.lastMove = gameState.getMove();
+
+    this.doMove(move);
+  }
+
+  /**
+   * Gets whether or not the current move marks the end of the game.
+   */
+  boolean isEOG() {
+    return getMoveType() < Move.MOVE_BOG;
+  }
+
+  /**
+   * Gets whether or not the last move ended in a win for X player.
+   */
+  boolean isXWin() {
+    return getMoveType() == Move.MOVE_XW;
+  }
+
+  /**
+   * Gets whether or not the last move ended in a win for O player.
+   */
+  boolean isOWin() {
+    return getMoveType() == Move.MOVE_OW;
+  }
+
+  /**
+   * Gets the content of a cell in the board, from row, column and layer
+   * number. If the cell falls outside of the board, return CELL_INVALID.
+   *
+   * @see GameState#at(int, int, int)
+   */
+  public int at(int row, int column, int layer) {
+    if ((row < 0) || (row > BOARD_SIZE - 1) || (column < 0)
+        || (column > BOARD_SIZE - 1) || (layer < 0) || (layer > BOARD_SIZE - 1))
+      return Constants.CELL_INVALID;
+    return at(GameState.rowColumnLayerToCell(row, column, layer));
+  }
+
+  /**
+   * Returns the content of a cell in the board.
+   */
+  public int at(int pos) {
+    assert(pos >= 0);
+    assert(pos < CELL_COUNT);
+    if (((xCells >>> pos) & 1L) != 0)
+      return Constants.CELL_X;
+    if (((oCells >>> pos) & 1L) != 0)
+      return Constants.CELL_O;
+    return Constants.CELL_EMPTY;
+  }
+
+  /**
+   * Gets the cells owned by a player, one bit per cell.
+   */
+  public long getCells(int player) {
+    return (player == Constants.CELL_X) ? xCells : oCells;
+  }
+
+  /**
+   * Gets the empty cells, one bit per cell.
+   */
+  public long getEmptyCells() {
+    return ~(xCells | oCells);
+  }
+
+  /**
+   * Gets the heuristic score of the board for a player, the same value as a
+   * full evaluation of every line would give.
+   *
+   * @param player the player the score is computed for
+   */
+  public float getScore(int player) {
+    return (float) ((player == Constants.CELL_X) ? xScore : oScore);
+  }
+
+  /**
+   * Scores, for a player, the boards a move of the next player in each of
+   * the given cells leads to: scores[i] is what getScore(player) would be
+   * after apply(cells[i]). All the children of a node are scored in one pass
+   * from the line counts, without making any move.
+   *
+   * @param cells empty cells
+   * @param count the number of cells
+   * @param player the player the scores are computed for
+   * @param scores receives the score of every child
+   */
+  public void scoreChildren(int[] cells, int count, int player, float[] scores) {
+    byte[] ownCounts = (player == Constants.CELL_X) ? xLineCounts : oLineCounts;
+    byte[] otherCounts = (player == Constants.CELL_X) ? oLineCounts : xLineCounts;
+    long score = (player == Constants.CELL_X) ? xScore : oScore;
+    // The mark adds to the own or the other count of every line it is on
+    int ownMark = (nextPlayer == player) ? 1 : 0;
+    int otherMark = 1 - ownMark;
+
+    for (int i = 0; i < count; ++i) {
+      long childScore = score;
+      for (int l : CELL_LINES[cells[i]]) {
+        int own = ownCounts[l];
+        int other = otherCounts[l];
+        childScore += LINE_SCORES[own + ownMark][other + otherMark]
+            - LINE_SCORES[own][other];
+      }
+      scores[i] = (float) childScore;
+    }
+  }
+
+  /**
+   * Gets the Zobrist key of the position, which covers the marks on the
+   * board and the next player.
+   */
+  public long getKey() {
+    return (nextPlayer == Constants.CELL_O) ? cellsKey ^ ZOBRIST_O_NEXT : cellsKey;
+  }
+
+  /**
+   * Gets the Zobrist key the position would have after the next player marks
+   * cell, without making the move.
+   *
+   * @param cell an empty cell
+   */
+  public long getKeyAfter(int cell) {
+    return getKey() ^ ZOBRIST_CELLS[nextPlayer][cell] ^ ZOBRIST_O_NEXT;
+  }
+
+  /**
+   * Gets the empty cells lying on a line where a player has a given number
+   * of marks and the opponent has none. With BOARD_SIZE - 1 marks, these
+   * are the cells where the player would win.
+   *
+   * @param player the player owning the marks
+   * @param marks the number of marks of the player on the line
+   */
+  public long getLineCells(int player, int marks) {
+    if (marks == BOARD_SIZE - 1) {
+      return getWinCells(player);
+    }
+    byte[] ownCounts = (player == Constants.CELL_X) ? xLineCounts : oLineCounts;
+    byte[] otherCounts = (player == Constants.CELL_X) ? oLineCounts : xLineCounts;
+    long cells = 0;
+    for (int l = 0; l < LINE_COUNT; ++l) {
+      if (ownCounts[l] == marks && otherCounts[l] == 0) {
+        cells |= LINE_MASKS[l];
+      }
+    }
+    return cells & getEmptyCells();
+  }
+
+  /**
+   * Gets the empty cells where a player would complete a line, the same as
+   * getLineCells(player, BOARD_SIZE - 1) but kept up to date by every move
+   * rather than found by a scan of the lines.
+   *
+   * @param player the player completing the lines
+   */
+  public long getWinCells(int player) {
+    return (player == Constants.CELL_X) ? xWinCells : oWinCells;
+  }
+
+  /**
+   * Finds the symmetry which maps the position to its canonical form.
+   *
+   * @see Symmetry#canonicalSymmetry(long, long)
+   */
+  public int getCanonicalSymmetry() {
+    return Symmetry.canonicalSymmetry(xCells, oCells);
+  }
+
+  /**
+   * Gets the Zobrist key of the image of the position under a symmetry.
+   * With the symmetry returned by getCanonicalSymmetry, this is a key shared
+   * by all the positions which are symmetric to each other.
+   *
+   * @param symmetry the symmetry index
+   */
+  public long getKey(int symmetry) {
+    long key = (nextPlayer == Constants.CELL_O) ? ZOBRIST_O_NEXT : 0;
+    for (long bits = Symmetry.transform(symmetry, xCells); bits != 0; bits &= bits - 1)
+      key ^= ZOBRIST_CELLS[Constants.CELL_X][Long.numberOfTrailingZeros(bits)];
+    for (long bits = Symmetry.transform(symmetry, oCells); bits != 0; bits &= bits - 1)
+      key ^= ZOBRIST_CELLS[Constants.CELL_O][Long.numberOfTrailingZeros(bits)];
+    return key;
+  }
+
+  /**
+   * Gets the last move made (the move that led to the current state).
+   */
+  public final Move getMove() {
+    if (appliedCount == 0) {
+      return this.lastMove;
+    }
+    int type = appliedTypes[appliedCount - 1];
+    int special = (type == Move.MOVE_DRAW) ? Move.SPECIAL_DRAW
+        : (type == Move.MOVE_NORMAL) ? Move.SPECIAL_NONE : Move.SPECIAL_WIN;
+    return Move.of(appliedCells[appliedCount - 1],
+        nextPlayer ^ (Constants.CELL_X | Constants.CELL_O), special);
+  }
+
+  /**
+   * Gets the type of the last move made, one of the Move.MOVE_ constants.
+   */
+  public final int getMoveType() {
+    return (appliedCount == 0) ? this.lastMove.getType()
+        : appliedTypes[appliedCount - 1];
+  }
+
+  /**
+   * Gets the next player (the player whose turn is after this one).
+   */
+  public final int getNextPlayer() {
+    return this.nextPlayer;
+  }
+
+  /**
+   * Checks if player marking cell ends up being a special move.
+   *
+   * @param cell the (empty) cell where the move is tried
+   * @param player player who is making the move
+   * @return one of Move.SPECIAL_NONE, Move.SPECIAL_WIN or Move.SPECIAL_DRAW
+   */
+  int specialMove(int cell, int player) {
+    byte[] ownCounts = (player == Constants.CELL_X) ? xLineCounts : oLineCounts;
+    byte[] otherCounts = (player == Constants.CELL_X) ? oLineCounts : xLineCounts;
+    int newDeadLines = 0;
+
+    if ((getWinCells(player) & (1L << cell)) != 0) {
+      return Move.SPECIAL_WIN;
+    }
+    for (int l : CELL_LINES[cell]) {
+      if (ownCounts[l] == 0 && otherCounts[l] > 0) {
+        newDeadLines++;
+      }
+    }
+
+    // A draw is when every line holds marks of both players
+    return (deadLines + newDeadLines == LINE_COUNT) ? Move.SPECIAL_DRAW
+        : Move.SPECIAL_NONE;
+  }
+
+  /**
+   * Builds the move of the next player in cell, as findPossibleMoves would.
+   *
+   * @param cell an empty cell
+   */
+  public Move toMove(int cell) {
+    return Move.of(cell, nextPlayer, specialMove(cell, nextPlayer));
+  }
+
+  /**
+   * Finds possible moves and stores these in a vector in the current game
+   * state.
+   *
+   * @param states the vector where the resulting states are stored
+   */
+  public void findPossibleMoves(Vector<BitGameState> states) {
+    states.clear();
+
+    if (isEOG()) {
+      return;
+    }
+    if (nextPlayer != Constants.CELL_X && nextPlayer != Constants.CELL_O) {
+      return;
+    }
+
+    long empty = getEmptyCells();
+    while (empty != 0) {
+      int cell = Long.numberOfTrailingZeros(empty);
+      empty &= empty - 1;
+
+      states.add(new BitGameState(this, toMove(cell)));
+    }
+  }
+
+  /**
+   * Lists the cells the next player can play, in the same order as
+   * findPossibleMoves.
+   *
+   * @param moves an array of at least CELL_COUNT elements receiving the cells
+   * @return the number of cells stored in moves
+   */
+  public int getMoves(int[] moves) {
+    if (isEOG()) {
+      return 0;
+    }
+    if (nextPlayer != Constants.CELL_X && nextPlayer != Constants.CELL_O) {
+      return 0;
+    }
+
+    int count = 0;
+    long empty = getEmptyCells();
+    while (empty != 0) {
+      moves[count++] = Long.numberOfTrailingZeros(empty);
+      empty &= empty - 1;
+    }
+    return count;
+  }
+
+  /**
+   * Lists the cells the next player can play, keeping only the first cell of
+   * each group of cells which are images of each other under a symmetry of
+   * the position. Playing any cell of a group leads to the same value.
+   *
+   * @param moves an array of at least CELL_COUNT elements receiving the cells
+   * @return the number of cells stored in moves
+   */
+  public int getUniqueMoves(int[] moves) {
+    int count = getMoves(moves);
+    int[] symmetries = new int[Symmetry.COUNT];
+    int symmetryCount = Symmetry.stabilizer(xCells, oCells, symmetries);
+    if (symmetryCount == 1) {
+      return count;
+    }
+
+    long covered = 0;
+    int unique = 0;
+    for (int i = 0; i < count; ++i) {
+      int cell = moves[i];
+      if ((covered & (1L << cell)) != 0) {
+        continue;
+      }
+      for (int k = 0; k < symmetryCount; ++k)
+        covered |= 1L << Symmetry.PERMUTATIONS[symmetries[k]][cell];
+      moves[unique++] = cell;
+    }
+    return unique;
+  }
+
+  /**
+   * Makes the next player mark cell, pushing the move on the move stack.
+   *
+   * @param cell a cell returned by getMoves
+   */
+  public void apply(int cell) {
+    if (appliedCells == null) {
+      appliedCells = new int[CELL_COUNT];
+      appliedTypes = new int[CELL_COUNT];
+    }
+
+    int special = specialMove(cell, nextPlayer);
+    int type = (special == Move.SPECIAL_DRAW) ? Move.MOVE_DRAW
+        : (special == Move.SPECIAL_NONE) ? Move.MOVE_NORMAL
+        : (nextPlayer == Constants.CELL_X) ? Move.MOVE_XW : Move.MOVE_OW;
+
+    place(cell, nextPlayer);
+    appliedCells[appliedCount] = cell;
+    appliedTypes[appliedCount] = type;
+    appliedCount++;
+    nextPlayer = nextPlayer ^ (Constants.CELL_X | Constants.CELL_O);
+  }
+
+  /**
+   * Makes a move returned by findPossibleMoves, pushing it on the move stack.
+   *
+   * @param move the move to perform
+   */
+  public void apply(final Move move) {
+    assert(move.at(1) == nextPlayer);
+    apply(move.at(0));
+  }
+
+  /**
+   * Takes back the last move pushed by apply.
+   */
+  public void undo() {
+    assert(appliedCount > 0);
+    appliedCount--;
+    nextPlayer = nextPlayer ^ (Constants.CELL_X | Constants.CELL_O);
+    remove(appliedCells[appliedCount], nextPlayer);
+  }
+
+  /**
+   * Transforms the board by performing a move.
+   *
+   * Note: This doesn't check that the move is valid, so you should only use
+   * it with moves returned by findPossibleMoves.
+   *
+   * @param move the move to perform
+   */
+  public void doMove(final Move move) {
+    assert(appliedCount == 0);
+
+    // Set the cell
+    place(move.at(0), move.at(1));
+
+    // Remember last move
+    lastMove = move;
+
+    // Swap player
+    nextPlayer = nextPlayer ^ (Constants.CELL_X | Constants.CELL_O);
+  }
+
+  /**
+   * Transforms the board back by reverting a move made with doMove.
+   *
+   * @param move the move to revert, which must be the last move made
+   * @param previousMove the move that led to the state before move
+   */
+  public void undoMove(final Move move, final Move previousMove) {
+    assert(appliedCount == 0 && move == lastMove);
+
+    // Clear the cell
+    remove(move.at(0), move.at(1));
+
+    // Restore last move
+    lastMove = previousMove;
+
+    // Swap player back
+    nextPlayer = nextPlayer ^ (Constants.CELL_X | Constants.CELL_O);
+  }
+
+  /**
+   * Marks an empty cell for a player and updates the lines through it.
+   */
+  private void place(int cell, int player) {
+    long occupied = xCells | oCells;
+    for (int l : CELL_LINES[cell]) {
+      xScore -= LINE_SCORES[xLineCounts[l]][oLineCounts[l]];
+      oScore -= LINE_SCORES[oLineCounts[l]][xLineCounts[l]];
+      countWinLine(l, occupied, -1);
+      if (player == Constants.CELL_X) {
+        if (xLineCounts[l]++ == 0 && oLineCounts[l] > 0)
+          deadLines++;
+      }
+      else {
+        if (oLineCounts[l]++ == 0 && xLineCounts[l] > 0)
+          deadLines++;
+      }
+      countWinLine(l, occupied | (1L << cell), 1);
+      xScore += LINE_SCORES[xLineCounts[l]][oLineCounts[l]];
+      oScore += LINE_SCORES[oLineCounts[l]][xLineCounts[l]];
+    }
+    if (player == Constants.CELL_X)
+      xCells |= 1L << cell;
+    else
+      oCells |= 1L << cell;
+    cellsKey ^= ZOBRIST_CELLS[player][cell];
+  }
+
+  /**
+   * Clears a cell marked by a player and updates the lines through it.
+   */
+  private void remove(int cell, int player) {
+    long occupied = xCells | oCells;
+    for (int l : CELL_LINES[cell]) {
+      xScore -= LINE_SCORES[xLineCounts[l]][oLineCounts[l]];
+      oScore -= LINE_SCORES[oLineCounts[l]][xLineCounts[l]];
+      countWinLine(l, occupied, -1);
+      if (player == Constants.CELL_X) {
+        if (--xLineCounts[l] == 0 && oLineCounts[l] > 0)
+          deadLines--;
+      }
+      else {
+        if (--oLineCounts[l] == 0 && xLineCounts[l] > 0)
+          deadLines--;
+      }
+      countWinLine(l, occupied & ~(1L << cell), 1);
+      xScore += LINE_SCORES[xLineCounts[l]][oLineCounts[l]];
+      oScore += LINE_SCORES[oLineCounts[l]][xLineCounts[l]];
+    }
+    if (player == Constants.CELL_X)
+      xCells &= ~(1L << cell);
+    else
+      oCells &= ~(1L << cell);
+    cellsKey ^= ZOBRIST_CELLS[player][cell];
+  }
+
+  /**
+   * Adds delta to the number of lines completed by their one empty cell, if
+   * line l is one: a line holding BOARD_SIZE - 1 marks of a player and none
+   * of the other.
+   *
+   * @param l the line
+   * @param occupied the cells marked by either player, for the line counts
+   *        at the time of the call
+   * @param delta 1 when the counts have just been updated, -1 before
+   */
+  private void countWinLine(int l, long occupied, int delta) {
+    int player;
+    if (xLineCounts[l] == BOARD_SIZE - 1 && oLineCounts[l] == 0)
+      player = Constants.CELL_X;
+    else if (oLineCounts[l] == BOARD_SIZE - 1 && xLineCounts[l] == 0)
+      player = Constants.CELL_O;
+    else
+      return;
+
+    int cell = Long.numberOfTrailingZeros(LINE_MASKS[l] & ~occupied);
+    int count = (winLineCounts[(player - 1) * CELL_COUNT + cell] += delta);
+    long bit = (count > 0) ? 1L << cell : 0;
+    if (player == Constants.CELL_X)
+      xWinCells = (xWinCells & ~(1L << cell)) | bit;
+    else
+      oWinCells = (oWinCells & ~(1L << cell)) | bit;
+  }
+
+  /**
+   * Compares two game states.
+   *
+   * @param gameState game state to compare to
+   * @return true if game states are identical, otherwise false
+   */
+  public boolean isEqual(BitGameState gameState) {
+    return xCells == gameState.xCells && oCells == gameState.oCells
+        && nextPlayer == gameState.nextPlayer
+        && getMove().toMessage().equals(gameState.getMove().toMessage());
+  }
+
+  /**
+   * Converts the board to a human-readable string for printing purposes.
+   *
+   * @see GameState#toString(int)
+   */
+  public String toString(int player) {
+    return new GameState(toMessage()).toString(player);
+  }
+
+  /**
+   * Converts the board to a machine-readable string ready to be printed to
+   * System.out.
+   *
+   * Note: This is used for passing board states between clients.
+   */
+  public String toMessage() {
+    StringBuffer ss = new StringBuffer();
+
+    // The board goes first
+    for (int i = 0; i < CELL_COUNT; i++) {
+      ss.append(Constants.MESSAGE_SYMBOLS[at(i)]);
+    }
+
+    // Then the information about moves
+    assert((nextPlayer == Constants.CELL_O) || (nextPlayer == Constants.CELL_X));
+    ss.append(" " + getMove().toMessage() + " " + Constants.MESSAGE_SYMBOLS[nextPlayer]);
+
+    return ss.toString();
+  }
+}
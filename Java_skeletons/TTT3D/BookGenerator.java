@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Generates the opening book.
+ *
+ * All the positions up to a given ply are enumerated, keeping one position
+ * of each group of symmetric positions, and each of them is searched by the
+ * Player for a fixed amount of time. The moves found are written into a book
+ * file.
+ *
+ * Usage: java BookGenerator [plies] [seconds per position] [file]
+ */
+public class BookGenerator {
+  public static void main(String[] args) throws IOException {
+    int plies = (args.length > 0) ? Integer.parseInt(args[0]) : 2;
+    long seconds = (args.length > 1) ? Long.parseLong(args[1]) : 10;
+    Path path = Paths.get((args.length > 2) ? args[2] : Player.bookFile);
+
+    List<BitGameState> positions = enumerate(plies);
+    System.err.println(positions.size() + " positions up to ply " + plies);
+
+    long[] keys = new long[positions.size()];
+    int[] cells = new int[positions.size()];
+
+    // Not from the book being replaced
+    Player player = new Player(1, false);
+    for (int i = 0; i < positions.size(); i++) {
+      BitGameState board = positions.get(i);
+      GameState state = new GameState(board.toMessage());
+      Deadline deadline = new Deadline(Deadline.getCpuTime() + seconds * 1000000000L);
+      int cell = player.play(state, deadline).getMove().at(0);
+
+      int symmetry = board.getCanonicalSymmetry();
+      keys[i] = board.getKey(symmetry);
+      cells[i] = Symmetry.PERMUTATIONS[symmetry][cell];
+      System.err.println((i + 1) + "/" + positions.size() + ": depth " + player.getDepth()
+          + ", cell " + cell);
+    }
+
+    OpeningBook.write(path, keys, cells, positions.size());
+    System.err.println("Wrote " + path);
+  }
+
+  /**
+   * Lists the positions which are not over, up to a ply, one per group of
+   * symmetric positions.
+   */
+  static List<BitGameState> enumerate(int plies) {
+    List<BitGameState> all = new ArrayList<BitGameState>();
+    List<BitGameState> level = new ArrayList<BitGameState>();
+    level.add(new BitGameState());
+    int[] moves = new int[GameState.CELL_COUNT];
+
+    for (int ply = 0; ply <= plies; ply++) {
+      all.addAll(level);
+      if (ply == plies) {
+        break;
+      }
+
+      HashSet<Long> seen = new HashSet<Long>();
+      List<BitGameState> next = new ArrayList<BitGameState>();
+      for (BitGameState board : level) {
+        int count = board.getUniqueMoves(moves);
+        for (int i = 0; i < count; i++) {
+          BitGameState child = new BitGameState(board, board.toMove(moves[i]));
+          if (!child.isEOG() && seen.add(child.getKey(child.getCanonicalSymmetry()))) {
+            next.add(child);
+          }
+        }
+      }
+      level = next;
+    }
+    return all;
+  }
+}
@@ -0,0 +1,592 @@
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+/**
+ * Represents a game state on an n x n x n board, for any size CubeLines
+ * handles, stored as a bitboard of several 64-bit words per player.
+ *
+ * It is the BitGameState of larger cubes: cells are numbered as in
+ * GameState, the line counts, heuristic score, winning cells and Zobrist
+ * key are kept up to date on every move, and a search makes and unmakes
+ * moves in place with apply and undo. Only the lines through the cell
+ * marked are touched, so a move costs about as much on a large cube as on
+ * the 4-cube; listing the empty cells costs one word per 64 cells.
+ *
+ * Messages are those of GameState with a board of n^3 cells, the size
+ * being told by the length of the board. The game ends, as in GameState,
+ * when a player completes a line or when every line holds marks of both
+ * players.
+ */
+public class CubeGameState {
+  private final CubeLines lines;
+  private final long[] xCells;
+  private final long[] oCells;
+  private byte[] xLineCounts;
+  private byte[] oLineCounts;
+  /* Cells completing a line for X and for O, and for every player and cell
+   * (at (player - 1) * cellCount + cell) the number of such lines */
+  private final long[] xWinCells;
+  private final long[] oWinCells;
+  private byte[] winLineCounts;
+  private double xScore;
+  private double oScore;
+  private int deadLines;
+  private int markCount;
+  private long cellsKey;
+  private int nextPlayer;
+  private Move lastMove;
+
+  /* Moves made with apply, as cells and move types, most recent last, and
+   * the scores before each of them: undo restores them rather than
+   * subtracting line scores back, which would not give the same doubles */
+  private int[] appliedCells;
+  private int[] appliedTypes;
+  private double[] appliedScores;
+  private int appliedCount;
+
+  /**
+   * Initializes a board of the given size to the starting position.
+   *
+   * @param size cells along an edge
+   */
+  public CubeGameState(int size) {
+    this.lines = CubeLines.of(size);
+    this.xCells = new long[lines.words];
+    this.oCells = new long[lines.words];
+    this.xLineCounts = new byte[lines.lineCount];
+    this.oLineCounts = new byte[lines.lineCount];
+    this.xWinCells = new long[lines.words];
+    this.oWinCells = new long[lines.words];
+    this.winLineCounts = new byte[2 * lines.cellCount];
+    this.lastMove = new Move(Move.MOVE_BOG);
+    // Player X starts
+    this.nextPlayer = Constants.CELL_X;
+  }
+
+  /**
+   * Constructs a board from a message string.
+   *
+   * @param pMessage the compact string representation of the state
+   * @throws IllegalArgumentException if the board is not a cube of a
+   *         supported size
+   */
+  public CubeGameState(final String pMessage) {
+    this(sizeOf(pMessage));
+    StringTokenizer st = new StringTokenizer(pMessage);
+
+    String board, last_move, next_player;
+    board = st.nextToken();
+    last_move = st.nextToken();
+    next_player = st.nextToken();
+
+    assert(next_player.length() == 1);
+
+    // Parse the board
+    for (int i = 0; i < lines.cellCount; ++i) {
+      if (board.charAt(i) == Constants.MESSAGE_SYMBOLS[Constants.CELL_X]) {
+        place(i, Constants.CELL_X);
+      }
+      else if (board.charAt(i) == Constants.MESSAGE_SYMBOLS[Constants.CELL_O]) {
+        place(i, Constants.CELL_O);
+      }
+      else
+        assert(board.charAt(i) == Constants.MESSAGE_SYMBOLS[Constants.CELL_EMPTY]);
+    }
+
+    // Parse last move
+    this.lastMove = new Move(last_move);
+
+    // Parse next player
+    this.nextPlayer = Constants.CELL_EMPTY;
+    for (int player = Constants.CELL_EMPTY; player <= Constants.CELL_O; ++player) {
+      if (next_player.charAt(0) == Constants.MESSAGE_SYMBOLS[player]) {
+        this.nextPlayer = player;
+      }
+    }
+  }
+
+  private static int sizeOf(String pMessage) {
+    int length = pMessage.indexOf(' ');
+    int size = CubeLines.sizeOf((length < 0) ? pMessage.length() : length);
+    if (size < 0) {
+      throw new IllegalArgumentException("The board is not a cube: '" + pMessage + "'");
+    }
+    return size;
+  }
+
+  /**
+   * Constructs a board which is the result of applying move move to board
+   * gameState.
+   *
+   * @param gameState the starting board position
+   * @param move the movement to perform
+   */
+  public CubeGameState(final CubeGameState gameState, final Move move) {
+    this.lines = gameState.lines;
+    this.xCells = gameState.xCells.clone();
+    this.oCells = gameState.oCells.clone();
+    this.xLineCounts = gameState.xLineCounts.clone();
+    this.oLineCounts = gameState.oLineCounts.clone();
+    this.xWinCells = gameState.xWinCells.clone();
+    this.oWinCells = gameState.oWinCells.clone();
+    this.winLineCounts = gameState.winLineCounts.clone();
+    this.xScore = gameState.xScore;
+    this.oScore = gameState.oScore;
+    this.deadLines = gameState.deadLines;
+    this.markCount = gameState.markCount;
+    this.cellsKey = gameState.cellsKey;
+    this.nextPlayer = gameState.nextPlayer;
+    this.lastMove = gameState.getMove();
+
+    this.doMove(move);
+  }
+
+  /**
+   * Gets the line tables of the board's size.
+   */
+  public CubeLines getLines() {
+    return lines;
+  }
+
+  /**
+   * Gets the number of cells along an edge of the board.
+   */
+  public int getSize() {
+    return lines.size;
+  }
+
+  /**
+   * Gets whether or not the current move marks the end of the game.
+   */
+  boolean isEOG() {
+    return getMoveType() < Move.MOVE_BOG;
+  }
+
+  /**
+   * Gets whether or not the last move ended in a win for X player.
+   */
+  boolean isXWin() {
+    return getMoveType() == Move.MOVE_XW;
+  }
+
+  /**
+   * Gets whether or not the last move ended in a win for O player.
+   */
+  boolean isOWin() {
+    return getMoveType() == Move.MOVE_OW;
+  }
+
+  /**
+   * Gets the content of a cell in the board, from row, column and layer
+   * number. If the cell falls outside of the board, return CELL_INVALID.
+   *
+   * @see GameState#at(int, int, int)
+   */
+  public int at(int row, int column, int layer) {
+    int size = lines.size;
+    if ((row < 0) || (row > size - 1) || (column < 0)
+        || (column > size - 1) || (layer < 0) || (layer > size - 1))
+      return Constants.CELL_INVALID;
+    return at(lines.cell(row, column, layer));
+  }
+
+  /**
+   * Returns the content of a cell in the board.
+   */
+  public int at(int pos) {
+    assert(pos >= 0);
+    assert(pos < lines.cellCount);
+    if (((xCells[pos >>> 6] >>> pos) & 1L) != 0)
+      return Constants.CELL_X;
+    if (((oCells[pos >>> 6] >>> pos) & 1L) != 0)
+      return Constants.CELL_O;
+    return Constants.CELL_EMPTY;
+  }
+
+  /**
+   * Gets the number of empty cells.
+   */
+  public int getEmptyCount() {
+    return lines.cellCount - markCount;
+  }
+
+  /**
+   * Gets the heuristic score of the board for a player, computed with the
+   * line scores of CubeLines. It is kept up to date by adding and
+   * subtracting them, so it may be off by the rounding error of the largest.
+   *
+   * @param player the player the score is computed for
+   */
+  public double getScore(int player) {
+    return (player == Constants.CELL_X) ? xScore : oScore;
+  }
+
+  /**
+   * Gets the Zobrist key of the position, which covers the marks on the
+   * board and the next player.
+   */
+  public long getKey() {
+    return (nextPlayer == Constants.CELL_O) ? cellsKey ^ lines.zobristONext : cellsKey;
+  }
+
+  /**
+   * Gets the cells where a player would complete a line, as a bitboard the
+   * caller must not change.
+   */
+  public long[] getWinCells(int player) {
+    return (player == Constants.CELL_X) ? xWinCells : oWinCells;
+  }
+
+  /**
+   * Gets the first cell where a player would complete a line.
+   *
+   * @return the cell, or -1 if there is none
+   */
+  public int getWinCell(int player) {
+    long[] wins = getWinCells(player);
+    for (int w = 0; w < wins.length; ++w) {
+      if (wins[w] != 0) {
+        return (w << 6) + Long.numberOfTrailingZeros(wins[w]);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Lists the cells where a player would complete a line.
+   *
+   * @param player the player
+   * @param moves receives the cells, and must have room for all of them
+   * @return the number of cells
+   */
+  public int getWinCells(int player, int[] moves) {
+    return listCells(getWinCells(player), moves);
+  }
+
+  /**
+   * Gets the last move made (the move that led to the current state).
+   */
+  public final Move getMove() {
+    if (appliedCount > 0) {
+      int cell = appliedCells[appliedCount - 1];
+      int player = nextPlayer ^ (Constants.CELL_X | Constants.CELL_O);
+      int type = appliedTypes[appliedCount - 1];
+      return Move.of(cell, player, (type == Move.MOVE_NORMAL) ? Move.SPECIAL_NONE
+          : (type == Move.MOVE_DRAW) ? Move.SPECIAL_DRAW : Move.SPECIAL_WIN);
+    }
+    return lastMove;
+  }
+
+  /**
+   * Gets the type of the last move, without building it.
+   */
+  public final int getMoveType() {
+    return (appliedCount > 0) ? appliedTypes[appliedCount - 1] : lastMove.getType();
+  }
+
+  /**
+   * Gets the next player (the player whose turn is after this one).
+   */
+  public final int getNextPlayer() {
+    return this.nextPlayer;
+  }
+
+  /**
+   * Checks if marking cell would be a special move (win or draw) for player.
+   *
+   * @return Move.SPECIAL_WIN, Move.SPECIAL_DRAW or Move.SPECIAL_NONE
+   */
+  private int specialMove(int cell, int player) {
+    if (((getWinCells(player)[cell >>> 6] >>> cell) & 1L) != 0) {
+      return Move.SPECIAL_WIN;
+    }
+    // The lines through cell the opponent has marked and the player has not
+    byte[] ownCounts = (player == Constants.CELL_X) ? xLineCounts : oLineCounts;
+    byte[] otherCounts = (player == Constants.CELL_X) ? oLineCounts : xLineCounts;
+    int newDead = 0;
+    for (int l : lines.cellLines[cell]) {
+      if (ownCounts[l] == 0 && otherCounts[l] > 0) {
+        newDead++;
+      }
+    }
+    return (deadLines + newDead == lines.lineCount) ? Move.SPECIAL_DRAW : Move.SPECIAL_NONE;
+  }
+
+  /**
+   * Converts a cell into the move the next player would make by marking it.
+   */
+  public Move toMove(int cell) {
+    return Move.of(cell, nextPlayer, specialMove(cell, nextPlayer));
+  }
+
+  /**
+   * Finds possible moves and stores these in a vector in the current game
+   * state.
+   *
+   * @param states the current game state
+   */
+  public void findPossibleMoves(Vector<CubeGameState> states) {
+    states.clear();
+
+    if (isEOG()) {
+      return;
+    }
+
+    int[] moves = new int[getEmptyCount()];
+    int count = getMoves(moves);
+    for (int i = 0; i < count; ++i) {
+      states.add(new CubeGameState(this, toMove(moves[i])));
+    }
+  }
+
+  /**
+   * Lists the legal cells for the next player, in increasing order.
+   *
+   * @param moves receives the cells, and must have room for getEmptyCount()
+   * @return the number of cells, 0 at the end of the game
+   */
+  public int getMoves(int[] moves) {
+    if (isEOG()) {
+      return 0;
+    }
+    int count = 0;
+    for (int w = 0; w < lines.words; ++w) {
+      long empty = ~(xCells[w] | oCells[w]);
+      // The last word may have bits beyond the board
+      if (w == lines.words - 1 && (lines.cellCount & 63) != 0) {
+        empty &= (1L << (lines.cellCount & 63)) - 1;
+      }
+      for (; empty != 0; empty &= empty - 1) {
+        moves[count++] = (w << 6) + Long.numberOfTrailingZeros(empty);
+      }
+    }
+    return count;
+  }
+
+  private static int listCells(long[] cells, int[] moves) {
+    int count = 0;
+    for (int w = 0; w < cells.length; ++w) {
+      for (long bits = cells[w]; bits != 0; bits &= bits - 1) {
+        moves[count++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Makes the next player mark cell, pushing the move on the move stack.
+   *
+   * @param cell a cell returned by getMoves
+   */
+  public void apply(int cell) {
+    if (appliedCells == null) {
+      appliedCells = new int[lines.cellCount];
+      appliedTypes = new int[lines.cellCount];
+      appliedScores = new double[2 * lines.cellCount];
+    }
+
+    int special = specialMove(cell, nextPlayer);
+    int type = (special == Move.SPECIAL_DRAW) ? Move.MOVE_DRAW
+        : (special == Move.SPECIAL_NONE) ? Move.MOVE_NORMAL
+        : (nextPlayer == Constants.CELL_X) ? Move.MOVE_XW : Move.MOVE_OW;
+
+    appliedScores[2 * appliedCount] = xScore;
+    appliedScores[2 * appliedCount + 1] = oScore;
+    place(cell, nextPlayer);
+    appliedCells[appliedCount] = cell;
+    appliedTypes[appliedCount] = type;
+    appliedCount++;
+    nextPlayer = nextPlayer ^ (Constants.CELL_X | Constants.CELL_O);
+  }
+
+  /**
+   * Takes back the last move pushed by apply.
+   */
+  public void undo() {
+    assert(appliedCount > 0);
+    appliedCount--;
+    nextPlayer = nextPlayer ^ (Constants.CELL_X | Constants.CELL_O);
+    remove(appliedCells[appliedCount], nextPlayer);
+    xScore = appliedScores[2 * appliedCount];
+    oScore = appliedScores[2 * appliedCount + 1];
+  }
+
+  /**
+   * Transforms the board by performing a move.
+   *
+   * Note: This doesn't check that the move is valid, so you should only use
+   * it with moves returned by findPossibleMoves.
+   *
+   * @param move the move to perform
+   */
+  public void doMove(final Move move) {
+    assert(appliedCount == 0);
+
+    // A pass move leaves the board as it is
+    if (move.getLength() == 2) {
+      place(move.at(0), move.at(1));
+    }
+
+    // Remember last move
+    lastMove = move;
+
+    // Swap player
+    nextPlayer = nextPlayer ^ (Constants.CELL_X | Constants.CELL_O);
+  }
+
+  /**
+   * Marks an empty cell for a player and updates the lines through it.
+   */
+  private void place(int cell, int player) {
+    for (int l : lines.cellLines[cell]) {
+      xScore -= lines.lineScores[xLineCounts[l]][oLineCounts[l]];
+      oScore -= lines.lineScores[oLineCounts[l]][xLineCounts[l]];
+      countWinLine(l, -1);
+      if (player == Constants.CELL_X) {
+        if (xLineCounts[l]++ == 0 && oLineCounts[l] > 0)
+          deadLines++;
+      }
+      else {
+        if (oLineCounts[l]++ == 0 && xLineCounts[l] > 0)
+          deadLines++;
+      }
+    }
+    if (player == Constants.CELL_X)
+      xCells[cell >>> 6] |= 1L << cell;
+    else
+      oCells[cell >>> 6] |= 1L << cell;
+    for (int l : lines.cellLines[cell]) {
+      countWinLine(l, 1);
+      xScore += lines.lineScores[xLineCounts[l]][oLineCounts[l]];
+      oScore += lines.lineScores[oLineCounts[l]][xLineCounts[l]];
+    }
+    markCount++;
+    cellsKey ^= lines.zobristCells[player][cell];
+  }
+
+  /**
+   * Clears a cell marked by a player and updates the lines through it.
+   */
+  private void remove(int cell, int player) {
+    for (int l : lines.cellLines[cell]) {
+      xScore -= lines.lineScores[xLineCounts[l]][oLineCounts[l]];
+      oScore -= lines.lineScores[oLineCounts[l]][xLineCounts[l]];
+      countWinLine(l, -1);
+      if (player == Constants.CELL_X) {
+        if (--xLineCounts[l] == 0 && oLineCounts[l] > 0)
+          deadLines--;
+      }
+      else {
+        if (--oLineCounts[l] == 0 && xLineCounts[l] > 0)
+          deadLines--;
+      }
+    }
+    if (player == Constants.CELL_X)
+      xCells[cell >>> 6] &= ~(1L << cell);
+    else
+      oCells[cell >>> 6] &= ~(1L << cell);
+    for (int l : lines.cellLines[cell]) {
+      countWinLine(l, 1);
+      xScore += lines.lineScores[xLineCounts[l]][oLineCounts[l]];
+      oScore += lines.lineScores[oLineCounts[l]][xLineCounts[l]];
+    }
+    markCount--;
+    cellsKey ^= lines.zobristCells[player][cell];
+  }
+
+  /**
+   * Adds delta to the number of lines completed by their one empty cell, if
+   * line l is one: a line holding size - 1 marks of a player and none of the
+   * other. The line counts and the bitboards must agree when it is called.
+   *
+   * @param l the line
+   * @param delta 1 when the counts have just been updated, -1 before
+   */
+  private void countWinLine(int l, int delta) {
+    int player;
+    if (xLineCounts[l] == lines.size - 1 && oLineCounts[l] == 0)
+      player = Constants.CELL_X;
+    else if (oLineCounts[l] == lines.size - 1 && xLineCounts[l] == 0)
+      player = Constants.CELL_O;
+    else
+      return;
+
+    int cell = -1;
+    for (int c : lines.lines[l]) {
+      if ((((xCells[c >>> 6] | oCells[c >>> 6]) >>> c) & 1L) == 0) {
+        cell = c;
+        break;
+      }
+    }
+    assert(cell >= 0);
+    int count = (winLineCounts[(player - 1) * lines.cellCount + cell] += delta);
+    long[] wins = (player == Constants.CELL_X) ? xWinCells : oWinCells;
+    if (count > 0)
+      wins[cell >>> 6] |= 1L << cell;
+    else
+      wins[cell >>> 6] &= ~(1L << cell);
+  }
+
+  /**
+   * Compares two game states.
+   *
+   * @param gameState game state to compare to
+   * @return true if game states are identical, otherwise false
+   */
+  public boolean isEqual(CubeGameState gameState) {
+    return java.util.Arrays.equals(xCells, gameState.xCells)
+        && java.util.Arrays.equals(oCells, gameState.oCells)
+        && nextPlayer == gameState.nextPlayer
+        && getMove().toMessage().equals(gameState.getMove().toMessage());
+  }
+
+  /**
+   * Converts the board to a human-readable string for printing purposes,
+   * with the layers side by side.
+   *
+   * Note: Use for debug purposes and print to System.err.
+   */
+  public String toString(int player) {
+    final String[] cell_text = Constants.SIMPLE_TEXT;
+    int size = lines.size;
+
+    boolean is_winner = (isEOG() && ((player == Constants.CELL_X && isXWin()) || (player == Constants.CELL_O && isOWin())));
+    boolean is_my_turn = (nextPlayer == player);
+
+    StringBuffer ss = new StringBuffer();
+    for (int row = 0; row < size; ++row) {
+      for (int layer = 0; layer < size; ++layer) {
+        ss.append((layer == 0) ? "  | " : "   | ");
+        for (int col = 0; col < size; ++col) {
+          ss.append(cell_text[at(row, col, layer)]);
+        }
+        ss.append("|");
+      }
+      ss.append("\n");
+    }
+    ss.append("  Last move: " + getMove().toString() + (is_winner ? " (WOHO! I WON!)\n" : "\n"));
+    ss.append("  Next player: " + cell_text[nextPlayer] + (is_my_turn ? " (My turn)\n" : " (Opponents turn)\n"));
+    return ss.toString();
+  }
+
+  /**
+   * Converts the board to a machine-readable string ready to be printed to
+   * System.out.
+   *
+   * Note: This is used for passing board states between clients.
+   */
+  public String toMessage() {
+    StringBuffer ss = new StringBuffer();
+
+    // The board goes first
+    for (int i = 0; i < lines.cellCount; i++) {
+      ss.append(Constants.MESSAGE_SYMBOLS[at(i)]);
+    }
+
+    // Then the information about moves
+    assert((nextPlayer == Constants.CELL_O) || (nextPlayer == Constants.CELL_X));
+    ss.append(" " + getMove().toMessage() + " " + Constants.MESSAGE_SYMBOLS[nextPlayer]);
+
+    return ss.toString();
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * The winning lines of an n x n x n board, and the other tables a search
+ * needs for that size, generated once per size.
+ *
+ * Cells are numbered as in GameState, layer by layer, then row by row:
+ * cell = column + row * n + layer * n * n. A line is n cells in a row along
+ * one of the 13 directions of the cube, so an n-cube has
+ * ((n + 2)^3 - n^3) / 2 lines: 76 for n = 4, 109 for n = 5.
+ *
+ * Line scores are the ones of BitGameState with a base growing with the
+ * number of lines, so that a line with one more mark still outweighs every
+ * line with fewer; on the 4-cube the base is 80, as in BitGameState. They
+ * are doubles, since the largest of them passes the range of a long from
+ * n = 5 on.
+ */
+public class CubeLines {
+  public static final int MIN_SIZE = 3;    ///< smallest board handled
+  public static final int MAX_SIZE = 16;   ///< largest board handled, 4096 cells
+
+  private static final CubeLines[] cache = new CubeLines[MAX_SIZE + 1];
+
+  public final int size;        ///< cells along an edge
+  public final int cellCount;   ///< cells on the board
+  public final int lineCount;   ///< winning lines on the board
+  public final int words;       ///< longs in a bitboard of the board
+
+  /** Cell indexes of every winning line */
+  final int[][] lines;
+  /** Indexes of the lines going through every cell */
+  final int[][] cellLines;
+  /**
+   * Score of a line for a player, indexed by the number of marks of the
+   * player and of the opponent on the line, as in BitGameState.
+   */
+  final double[][] lineScores;
+  /** Zobrist keys of every cell for each player, and of O being next */
+  final long[][] zobristCells;
+  final long zobristONext;
+
+  /**
+   * Gets the tables of a size.
+   *
+   * @param size cells along an edge, from MIN_SIZE to MAX_SIZE
+   */
+  public static synchronized CubeLines of(int size) {
+    if (size < MIN_SIZE || size > MAX_SIZE) {
+      throw new IllegalArgumentException("Unsupported board size: " + size);
+    }
+    if (cache[size] == null) {
+      cache[size] = new CubeLines(size);
+    }
+    return cache[size];
+  }
+
+  private CubeLines(int size) {
+    this.size = size;
+    this.cellCount = size * size * size;
+    this.lineCount = ((size + 2) * (size + 2) * (size + 2) - cellCount) / 2;
+    this.words = (cellCount + 63) / 64;
+    assert(cellCount <= Move.MAX_CELLS);
+
+    lines = new int[lineCount][];
+    int count = 0;
+    for (int dLay = -1; dLay <= 1; ++dLay)
+      for (int dRow = -1; dRow <= 1; ++dRow)
+        for (int dCol = -1; dCol <= 1; ++dCol) {
+          // Only keep one of the two opposite directions
+          if (dLay * 9 + dRow * 3 + dCol <= 0) {
+            continue;
+          }
+          for (int cell = 0; cell < cellCount; ++cell) {
+            int row = row(cell);
+            int col = column(cell);
+            int lay = layer(cell);
+            int endRow = row + dRow * (size - 1);
+            int endCol = col + dCol * (size - 1);
+            int endLay = lay + dLay * (size - 1);
+            if (endRow < 0 || endRow >= size || endCol < 0
+                || endCol >= size || endLay < 0 || endLay >= size) {
+              continue;
+            }
+            int[] line = new int[size];
+            for (int i = 0; i < size; ++i) {
+              line[i] = cell(row + dRow * i, col + dCol * i, lay + dLay * i);
+            }
+            lines[count++] = line;
+          }
+        }
+    assert(count == lineCount);
+
+    cellLines = new int[cellCount][];
+    int[] linesPerCell = new int[cellCount];
+    for (int l = 0; l < lineCount; ++l)
+      for (int cell : lines[l])
+        linesPerCell[cell]++;
+    for (int cell = 0; cell < cellCount; ++cell) {
+      cellLines[cell] = new int[linesPerCell[cell]];
+      linesPerCell[cell] = 0;
+    }
+    for (int l = 0; l < lineCount; ++l)
+      for (int cell : lines[l])
+        cellLines[cell][linesPerCell[cell]++] = l;
+
+    double base = lineCount + 4;
+    lineScores = new double[size + 1][size + 1];
+    for (int own = 0; own <= size; ++own) {
+      lineScores[own][0] = own * Math.pow(base, 2 * own);
+    }
+    lineScores[0][size - 1] = -Math.pow(base, 2 * size - 1);
+
+    // A fixed seed keeps keys the same from one run to the next
+    java.util.Random random = new java.util.Random(0x3D + size);
+    zobristCells = new long[Constants.CELL_O + 1][cellCount];
+    for (int player = Constants.CELL_X; player <= Constants.CELL_O; ++player)
+      for (int cell = 0; cell < cellCount; ++cell)
+        zobristCells[player][cell] = random.nextLong();
+    zobristONext = random.nextLong();
+  }
+
+  /**
+   * Gets the index of a cell from its row, column and layer.
+   */
+  public int cell(int row, int column, int layer) {
+    return column + row * size + layer * size * size;
+  }
+
+  /** Gets the row of a cell */
+  public int row(int cell) {
+    return (cell % (size * size)) / size;
+  }
+
+  /** Gets the column of a cell */
+  public int column(int cell) {
+    return cell % size;
+  }
+
+  /** Gets the layer of a cell */
+  public int layer(int cell) {
+    return cell / (size * size);
+  }
+
+  /**
+   * Gets the size of the cube whose board has the given number of cells.
+   *
+   * @return the size, or -1 if no cube has that many cells
+   */
+  public static int sizeOf(int cellCount) {
+    int size = (int) Math.round(Math.cbrt(cellCount));
+    return (size * size * size == cellCount) ? size : -1;
+  }
+}
@@ -0,0 +1,14 @@
+/**
+ * A way of choosing moves, picked on the command line of Main: the alphabeta
+ * Player or the Monte-Carlo MonteCarloPlayer.
+ */
+public interface Engine {
+  /**
+   * Performs a move
+   *
+   * @param gameState the current state of the board
+   * @param deadline time before which we must have returned
+   * @return the next state the board is in after our move
+   */
+  GameState play(GameState gameState, Deadline deadline);
+}
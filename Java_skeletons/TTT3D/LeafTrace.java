@@ -0,0 +1,149 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A trace of the leaf scores of the search, for debugging the evaluation.
+ *
+ * The trace is off unless the trace.file system property names a file, e.g.
+ * java -Dtrace.file=leaves.txt -Dtrace.rate=1000 Main. ENABLED is then a
+ * constant false, and the search code it guards is compiled away.
+ *
+ * When on, the searches pass one leaf in RATE (trace.rate, 1024 by default)
+ * to record, which puts its key and score in a ring buffer without locking:
+ * a slot is claimed by a compare-and-set of the tail, and published by a
+ * release write of its sequence number. A daemon thread empties the buffer
+ * into the file, one "key score" line per leaf. A leaf recorded while the
+ * buffer is full is dropped rather than making the search wait, and the
+ * number dropped is written when the process ends.
+ */
+public class LeafTrace {
+  public static final String FILE = System.getProperty("trace.file");   ///< the trace file, or null for no trace
+  public static final boolean ENABLED = FILE != null;                    ///< whether leaves are traced
+  public static final int RATE = Math.max(1, Integer.getInteger("trace.rate", 1024));   ///< leaves per leaf recorded
+
+  private static final int CAPACITY = 1 << 16;   ///< leaves the buffer holds
+  private static final long drainInterval = 10;  ///< milliseconds the writer sleeps on an empty buffer
+
+  /* Slot i holds a leaf once its sequence number is one past the position
+   * it was claimed at, and is free again once it is CAPACITY past that */
+  private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+  private static final long[] keys = new long[CAPACITY];
+  private static final float[] scores = new float[CAPACITY];
+  private static final AtomicLong tail = new AtomicLong();
+  private static final AtomicLong dropped = new AtomicLong();
+  private static long head;
+  private static boolean closed;
+
+  static {
+    if (ENABLED) {
+      for (int i = 0; i < CAPACITY; i++) {
+        sequences.set(i, i);
+      }
+      try {
+        BufferedWriter out = Files.newBufferedWriter(Paths.get(FILE));
+        Thread writer = new Thread(() -> write(out), "leaf trace");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> close(out)));
+      } catch (IOException e) {
+        System.err.println("Ignoring leaf trace: " + e.getMessage());
+      }
+    }
+  }
+
+  private LeafTrace() {
+  }
+
+  /**
+   * Adds a leaf to the trace, unless the buffer is full. Safe to call from
+   * any number of threads at once.
+   *
+   * @param key the key of the position
+   * @param score the score of the position
+   */
+  public static void record(long key, float score) {
+    long position = tail.get();
+    while (true) {
+      int slot = (int) position & (CAPACITY - 1);
+      long sequence = sequences.getAcquire(slot);
+      if (sequence == position) {
+        if (tail.compareAndSet(position, position + 1)) {
+          keys[slot] = key;
+          scores[slot] = score;
+          sequences.setRelease(slot, position + 1);
+          return;
+        }
+        position = tail.get();
+      }
+      else if (sequence < position) {
+        dropped.incrementAndGet();
+        return;
+      }
+      else {
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Writes the leaves recorded so far, from the writer thread or, at the
+   * end, from the shutdown hook.
+   *
+   * @return the number of leaves written, or -1 once the file is closed
+   */
+  private static synchronized int drain(BufferedWriter out) throws IOException {
+    if (closed) {
+      return -1;
+    }
+    int count = 0;
+    while (true) {
+      int slot = (int) head & (CAPACITY - 1);
+      if (sequences.getAcquire(slot) != head + 1) {
+        return count;
+      }
+      out.write(Long.toHexString(keys[slot]) + " " + scores[slot]);
+      out.newLine();
+      sequences.setRelease(slot, head + CAPACITY);
+      head++;
+      count++;
+    }
+  }
+
+  private static void write(BufferedWriter out) {
+    try {
+      int count;
+      while ((count = drain(out)) >= 0) {
+        if (count == 0) {
+          flush(out);
+          Thread.sleep(drainInterval);
+        }
+      }
+    } catch (IOException | InterruptedException e) {
+      System.err.println("Leaf trace stopped: " + e.getMessage());
+    }
+  }
+
+  private static synchronized void flush(BufferedWriter out) throws IOException {
+    if (!closed) {
+      out.flush();
+    }
+  }
+
+  private static synchronized void close(BufferedWriter out) {
+    try {
+      drain(out);
+      if (dropped.get() > 0) {
+        out.write("# " + dropped.get() + " leaves dropped");
+        out.newLine();
+      }
+      closed = true;
+      out.close();
+    } catch (IOException e) {
+      System.err.println("Leaf trace not closed: " + e.getMessage());
+    }
+  }
+}
@@ -9,6 +9,11 @@ import java.util.Vector;
  * Note:
  *      Use the verbose flag for outputting game information.
  *      Use the fast flag for using 1s move deadline instead of 10s.
+ *      Use the mcts flag for choosing moves by Monte-Carlo tree search
+ *      instead of alphabeta.
+ *      Use the size parameter, followed by a number, for playing on a cube
+ *      of that size (4 by default) with CubePlayer, e.g. "size 5" for the
+ *      5x5x5 board. Both clients must be given the same size.
  *      Use the init flag if you want this client to initialize the game, that
  *      is, send a starting board without moving for the other client to move
  *      first.
@@ -19,6 +24,8 @@ public class Main {
       boolean init = false;
       boolean verbose = false;
       boolean fast = false;
+      boolean mcts = false;
+      int size = GameState.BOARD_SIZE;
 
       for (int i = 0; i < args.length; ++i) {
         String param = args[i];
@@ -29,12 +36,26 @@ public class Main {
           verbose = true;
         } else if (param.equals("fast") || param.equals("f")) {
           fast = true;
+        } else if (param.equals("mcts") || param.equals("m")) {
+          mcts = true;
+        } else if ((param.equals("size") || param.equals("s")) && i + 1 < args.length) {
+          size = Integer.parseInt(args[++i]);
+          if (size < CubeLines.MIN_SIZE || size > CubeLines.MAX_SIZE) {
+            System.err.println("Unsupported size: " + size);
+            return;
+          }
         } else {
           System.err.println("Unknown parameter: '" + args[i] + "'");
           return;
         }
       }
 
+      /* Other cubes than the 4-cube are played by CubePlayer */
+      if (size != GameState.BOARD_SIZE) {
+        playCube(size, init, verbose, fast);
+        return;
+      }
+
       /**
        * Start the game by sending the starting board without moves
        * if the parameter "init" is given
@@ -44,7 +65,7 @@ public class Main {
         System.out.println(message);
       }
 
-      Player player = new Player();
+      Engine player = mcts ? new MonteCarloPlayer() : new Player();
 
       String input_message;
       BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
@@ -114,4 +135,75 @@ public class Main {
         }
       }
     }
+
+    /**
+     * Plays the game on a cube of any size, as main does on the 4-cube.
+     */
+    private static void playCube(int size, boolean init, boolean verbose, boolean fast) throws IOException {
+      if (init) {
+        String message = new CubeGameState(size).toMessage();
+        System.out.println(message);
+      }
+
+      CubePlayer player = new CubePlayer();
+
+      String input_message;
+      BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+      while ((input_message = br.readLine()) != null) {
+        Deadline deadline = new Deadline(Deadline.getCpuTime() + (fast ? (long) 1e8 : (long) 2.5e9));
+
+        CubeGameState input_state = new CubeGameState(input_message);
+        if (input_state.getSize() != size) {
+          System.err.println("*** ERROR! *** Expected a board of size " + size + ": '" + input_message + "'");
+          System.exit(134);
+        }
+
+        if (!input_state.toMessage().equals(input_message)) {
+          System.err.println("*** ERROR! ***");
+          System.err.println("Interpreted: '" + input_message + "'");
+          System.err.println("As:      '" + input_state.toMessage() + "'");
+          System.err.println(input_state.toString(input_state.getNextPlayer()));
+          assert(false);
+        }
+
+        if (verbose) {
+          System.err.println(input_state.toMessage());
+          System.err.println(input_state.toString(input_state.getNextPlayer()));
+        }
+
+        if (input_state.getMove().isEOG()) {
+          break;
+        }
+
+        CubeGameState output_state = player.play(input_state, deadline);
+
+        if (deadline.timeUntil() < 0) {
+          System.exit(152);
+        }
+
+        Vector<CubeGameState> output_states = new Vector<CubeGameState>();
+        input_state.findPossibleMoves(output_states);
+        boolean output_state_correct = false;
+        for (int i = 0; i < output_states.size(); ++i)
+          if (output_state.isEqual(output_states.elementAt(i))) {
+            output_state_correct = true;
+            break;
+          }
+        if (!output_state_correct) {
+          System.exit(134);
+        }
+
+        if (verbose) {
+          System.err.println(output_state.toMessage());
+          System.err.println(output_state.toString(input_state.getNextPlayer()));
+        }
+
+        String output_message = output_state.toMessage();
+        System.out.println(output_message);
+
+        if (output_state.getMove().isEOG()) {
+          break;
+        }
+      }
+    }
 }
@@ -0,0 +1,358 @@
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Chooses moves by Monte-Carlo tree search.
+ *
+ * Every simulation walks down the tree from the current position, choosing
+ * at each node the move with the best UCT value, blended with its RAVE
+ * (AMAF) value while the move has few visits of its own. The first position
+ * not in the tree is added to it, and the game is finished by random moves.
+ * Its result is then added to the nodes on the way, and to the AMAF
+ * statistics of every cell each player marked later in the simulation.
+ *
+ * Simulations run on two longs, one per player, rather than a BitGameState:
+ * a move only needs the lines through its cell to be checked. Games the
+ * rules call drawn once every line holds both marks are played on to a full
+ * board, which draws all the same.
+ *
+ * The tree is kept in a MonteCarloTable indexed by position, and carries
+ * over from one move to the next. Several threads can search it at once: a
+ * node counts a visit as soon as a simulation goes through it, which
+ * scores as a loss until the result comes back, so that the other threads
+ * turn to other moves meanwhile (virtual loss).
+ */
+public class MonteCarloPlayer implements Engine {
+  private static final long treeMemory = 64L << 20;   ///< bytes used by the tree
+  private static final double exploration = 0.25;   ///< weight of the UCT exploration term
+  private static final double raveBias = 0.01;      ///< how fast RAVE values give way to UCT ones
+  private static final double firstPlay = 1.1;      ///< value of a move never tried, even by AMAF
+  private static final int checkInterval = 64;      ///< simulations between two deadline checks
+  private static final int searchThreads = 1;       ///< threads searching a move, this one included
+
+  private static final int WIN_SCORE  = 2;   ///< score of a won simulation, in half points
+  private static final int DRAW_SCORE = 1;   ///< score of a drawn simulation, in half points
+
+  private final MonteCarloTable tree = new MonteCarloTable(treeMemory);
+
+  /* The position searched, shared by all the threads during a move */
+  private long rootX;
+  private long rootO;
+  private long rootKey;
+  private int rootPlayer;
+  private int rootNode;
+  private volatile boolean stop;
+
+  private final Simulator[] simulators;
+  private final ExecutorService pool;
+
+  /**
+   * Creates a player searching with searchThreads threads.
+   */
+  public MonteCarloPlayer() {
+    this(searchThreads);
+  }
+
+  /**
+   * Creates a player searching with the given number of threads.
+   *
+   * @param threads the number of threads, at least 1
+   */
+  public MonteCarloPlayer(int threads) {
+    this.simulators = new Simulator[threads];
+    for (int i = 0; i < threads; i++) {
+      simulators[i] = new Simulator(i + 1);
+    }
+    this.pool = (threads > 1) ? Executors.newFixedThreadPool(threads - 1, runnable -> {
+      Thread thread = new Thread(runnable, "simulation helper");
+      thread.setDaemon(true);
+      return thread;
+    }) : null;
+  }
+
+  /**
+   * Performs a move
+   *
+   * @param gameState the current state of the board
+   * @param deadline time before which we must have returned
+   * @return the next state the board is in after our move
+   */
+  public GameState play(final GameState gameState, final Deadline deadline) {
+    BitGameState board = new BitGameState(gameState);
+    if (board.getEmptyCells() == 0 || board.isEOG()) {
+      // Must play "pass" move if there are no other moves possible.
+      return new GameState(gameState, new Move());
+    }
+
+    long budget = deadline.timeUntil();
+    long stopMargin = budget / 10;
+
+    int player = board.getNextPlayer();
+    long wins = board.getWinCells(player);
+    if (wins != 0) {
+      return new GameState(gameState, board.toMove(Long.numberOfTrailingZeros(wins)));
+    }
+
+    // Statistics of earlier moves are kept until the tree fills up
+    if (tree.getUsed() > tree.size() / 2) {
+      tree.clear();
+    }
+    rootX = board.getCells(Constants.CELL_X);
+    rootO = board.getCells(Constants.CELL_O);
+    rootKey = board.getKey();
+    rootPlayer = player;
+    rootNode = tree.add(rootKey);
+    stop = false;
+    for (Simulator simulator : simulators) {
+      simulator.playouts = 0;
+    }
+
+    List<Future<?>> running = new ArrayList<Future<?>>();
+    for (int i = 1; i < simulators.length; i++) {
+      Simulator simulator = simulators[i];
+      running.add(pool.submit(() -> {
+        while (!stop) {
+          simulator.simulate();
+        }
+      }));
+    }
+
+    Simulator main = simulators[0];
+    do {
+      for (int i = 0; i < checkInterval; i++) {
+        main.simulate();
+      }
+    } while (deadline.timeUntil() > stopMargin);
+
+    stop = true;
+    for (Future<?> future : running) {
+      try {
+        future.get();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    return new GameState(gameState, board.toMove(mostVisited()));
+  }
+
+  /**
+   * Gets the number of simulations run for the last move, by all threads.
+   */
+  public long getPlayouts() {
+    long total = 0;
+    for (Simulator simulator : simulators) {
+      total += simulator.playouts;
+    }
+    return total;
+  }
+
+  /**
+   * Gets the tree of the player.
+   */
+  public MonteCarloTable getTree() {
+    return tree;
+  }
+
+  /**
+   * Finds the move of the root whose node has the most visits.
+   */
+  private int mostVisited() {
+    long empty = ~(rootX | rootO);
+    int best = Long.numberOfTrailingZeros(empty);
+    int bestVisits = -1;
+    for (long cells = empty; cells != 0; cells &= cells - 1) {
+      int cell = Long.numberOfTrailingZeros(cells);
+      int child = tree.find(childKey(rootKey, rootPlayer, cell));
+      int visits = (child >= 0) ? tree.visits(child) : 0;
+      if (visits > bestVisits) {
+        best = cell;
+        bestVisits = visits;
+      }
+    }
+    return best;
+  }
+
+  private static long childKey(long key, int player, int cell) {
+    return key ^ BitGameState.ZOBRIST_CELLS[player][cell] ^ BitGameState.ZOBRIST_O_NEXT;
+  }
+
+  private static int other(int player) {
+    return player ^ (Constants.CELL_X | Constants.CELL_O);
+  }
+
+  /**
+   * Checks whether the marks of a player complete a line through cell.
+   */
+  private static boolean isWin(long marks, int cell) {
+    for (int l : BitGameState.CELL_LINES[cell]) {
+      if ((marks & BitGameState.LINE_MASKS[l]) == BitGameState.LINE_MASKS[l]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Runs simulations from the root in one thread.
+   */
+  private class Simulator {
+    private final int[] path = new int[GameState.CELL_COUNT + 1];
+    private final int[] played = new int[GameState.CELL_COUNT];
+    private final int[] free = new int[GameState.CELL_COUNT];
+    private long random;
+    private long playouts;
+
+    Simulator(int seed) {
+      random = 0x2545F4914F6CDD1DL * seed;
+    }
+
+    /**
+     * Runs one simulation: down the tree, one node added, a random game,
+     * and the result back up.
+     */
+    void simulate() {
+      long x = rootX;
+      long o = rootO;
+      long key = rootKey;
+      int player = rootPlayer;
+      int pathLength = 0;
+      int playedCount = 0;
+      int winner = Constants.CELL_EMPTY;
+      boolean inTree = rootNode >= 0;
+
+      if (inTree) {
+        tree.addVisit(rootNode);
+        path[pathLength++] = rootNode;
+      }
+
+      // Down the tree, as long as the positions reached are in it
+      while (inTree && (x | o) != -1L) {
+        int cell = select(path[pathLength - 1], x, o, key, player);
+        played[playedCount++] = cell;
+        key = childKey(key, player, cell);
+        boolean won;
+        if (player == Constants.CELL_X) {
+          x |= 1L << cell;
+          won = isWin(x, cell);
+        }
+        else {
+          o |= 1L << cell;
+          won = isWin(o, cell);
+        }
+
+        int child = tree.find(key);
+        if (child < 0) {
+          child = tree.add(key);
+          inTree = false;
+        }
+        if (child >= 0) {
+          tree.addVisit(child);
+          path[pathLength++] = child;
+        }
+        if (won) {
+          winner = player;
+          break;
+        }
+        player = other(player);
+      }
+
+      // Random moves to the end of the game
+      if (winner == Constants.CELL_EMPTY) {
+        int freeCount = 0;
+        for (long cells = ~(x | o); cells != 0; cells &= cells - 1) {
+          free[freeCount++] = Long.numberOfTrailingZeros(cells);
+        }
+        while (freeCount > 0) {
+          int i = nextInt(freeCount);
+          int cell = free[i];
+          free[i] = free[--freeCount];
+          played[playedCount++] = cell;
+          boolean won;
+          if (player == Constants.CELL_X) {
+            x |= 1L << cell;
+            won = isWin(x, cell);
+          }
+          else {
+            o |= 1L << cell;
+            won = isWin(o, cell);
+          }
+          if (won) {
+            winner = player;
+            break;
+          }
+          player = other(player);
+        }
+      }
+
+      // Back up: node i is where the player who made move i is to move
+      int toMove = rootPlayer;
+      for (int i = 0; i < pathLength; i++) {
+        int node = path[i];
+        int ownScore = score(winner, toMove);
+        tree.addScore(node, score(winner, other(toMove)));
+        for (int j = i; j < playedCount; j += 2) {
+          tree.addAmaf(node, played[j], ownScore);
+        }
+        toMove = other(toMove);
+      }
+      playouts++;
+    }
+
+    /**
+     * Chooses the move to follow from a node of the tree.
+     */
+    private int select(int node, long x, long o, long key, int player) {
+      double logVisits = Math.log(tree.visits(node) + 1);
+      long empty = ~(x | o);
+      // Ties go to the first cell from a random start
+      int start = nextInt(GameState.CELL_COUNT);
+      long cells = Long.rotateRight(empty, start);
+      int best = -1;
+      double bestValue = -1;
+      for (; cells != 0; cells &= cells - 1) {
+        int cell = (Long.numberOfTrailingZeros(cells) + start) & (GameState.CELL_COUNT - 1);
+        int child = tree.find(childKey(key, player, cell));
+        int visits = (child >= 0) ? tree.visits(child) : 0;
+        int amafVisits = tree.amafVisits(node, cell);
+
+        double value;
+        if (visits == 0 && amafVisits == 0) {
+          value = firstPlay;
+        }
+        else {
+          double uct = (visits > 0) ? tree.score(child) / (2.0 * visits) : 0;
+          double rave = (amafVisits > 0) ? tree.amafScore(node, cell) / (2.0 * amafVisits) : 0;
+          double beta = amafVisits / (visits + amafVisits
+              + 4 * raveBias * raveBias * visits * amafVisits + 1e-9);
+          value = (1 - beta) * uct + beta * rave
+              + exploration * Math.sqrt(logVisits / (visits + 1));
+        }
+        if (value > bestValue) {
+          best = cell;
+          bestValue = value;
+        }
+      }
+      return best;
+    }
+
+    private int score(int winner, int player) {
+      if (winner == Constants.CELL_EMPTY) {
+        return DRAW_SCORE;
+      }
+      return (winner == player) ? WIN_SCORE : 0;
+    }
+
+    /**
+     * Draws an int in [0, bound) with xorshift64*.
+     */
+    private int nextInt(int bound) {
+      random ^= random >>> 12;
+      random ^= random << 25;
+      random ^= random >>> 27;
+      return (int) (((random * 0x2545F4914F6CDD1DL) >>> 32) * bound >>> 32);
+    }
+  }
+}
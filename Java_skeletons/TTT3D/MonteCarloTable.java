@@ -0,0 +1,176 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The nodes of a Monte-Carlo search tree, stored in a fixed-size table
+ * indexed by the Zobrist key of their position.
+ *
+ * Since nodes are found by position rather than linked to their parent,
+ * positions reached by different move orders share their statistics. A node
+ * holds the number of simulations through it and their total score, for the
+ * player who moved into the position, in half points (2 for a win, 1 for a
+ * draw). It also holds the AMAF statistics of every cell: the simulations
+ * through the node in which the player to move marked the cell at some later
+ * point, and their score for that player.
+ *
+ * The table is shared by the search threads. Slots are claimed with a
+ * compare-and-set of their key and every count is updated atomically, so
+ * that the virtual losses added on the way down are always matched by the
+ * results added on the way up. When every slot of a key's probe sequence is
+ * taken, the position is simply not stored.
+ */
+public class MonteCarloTable {
+  /** Bytes used by one node (key, counts and the AMAF counts of each cell) */
+  public static final int ENTRY_BYTES = 16 + 8 * GameState.CELL_COUNT;
+
+  private static final int PROBES = 8;   ///< slots tried for a key
+
+  /* Keys are stored XORed with this, so that an empty slot (0) cannot be
+   * mistaken for the empty board, whose key is 0 */
+  private static final long KEY_SALT = 0x9e3779b97f4a7c15L;
+
+  private final AtomicLongArray keys;
+  private final AtomicIntegerArray visits;
+  private final AtomicIntegerArray scores;
+  private final AtomicIntegerArray amafVisits;
+  private final AtomicIntegerArray amafScores;
+  private final AtomicInteger used = new AtomicInteger();
+  private final int mask;
+
+  /**
+   * Creates a table using at most the given amount of memory.
+   *
+   * @param bytes the memory budget, at least ENTRY_BYTES
+   */
+  public MonteCarloTable(long bytes) {
+    long entries = Long.highestOneBit(Math.max(1, bytes / ENTRY_BYTES));
+    entries = Math.min(entries, 1 << 24);
+    this.keys = new AtomicLongArray((int) entries);
+    this.visits = new AtomicIntegerArray((int) entries);
+    this.scores = new AtomicIntegerArray((int) entries);
+    this.amafVisits = new AtomicIntegerArray((int) entries * GameState.CELL_COUNT);
+    this.amafScores = new AtomicIntegerArray((int) entries * GameState.CELL_COUNT);
+    this.mask = (int) entries - 1;
+  }
+
+  /**
+   * Gets the number of nodes the table can hold.
+   */
+  public int size() {
+    return keys.length();
+  }
+
+  /**
+   * Gets the number of nodes stored.
+   */
+  public int getUsed() {
+    return used.get();
+  }
+
+  /**
+   * Empties the table. Must not be called while the table is searched.
+   */
+  public void clear() {
+    for (int i = 0; i < keys.length(); i++) {
+      keys.set(i, 0);
+      visits.set(i, 0);
+      scores.set(i, 0);
+    }
+    for (int i = 0; i < amafVisits.length(); i++) {
+      amafVisits.set(i, 0);
+      amafScores.set(i, 0);
+    }
+    used.set(0);
+  }
+
+  /**
+   * Finds the node of a position.
+   *
+   * @param key the Zobrist key of the position
+   * @return the node, or -1 if the position is not stored
+   */
+  public int find(long key) {
+    long stored = key ^ KEY_SALT;
+    int index = (int) key & mask;
+    for (int probe = 0; probe < PROBES; probe++) {
+      long slot = keys.get(index);
+      if (slot == stored) {
+        return index;
+      }
+      if (slot == 0) {
+        return -1;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the node of a position, adding it if it is not stored yet.
+   *
+   * @param key the Zobrist key of the position
+   * @return the node, or -1 if the table has no room for the position
+   */
+  public int add(long key) {
+    long stored = key ^ KEY_SALT;
+    int index = (int) key & mask;
+    for (int probe = 0; probe < PROBES; probe++) {
+      long slot = keys.get(index);
+      if (slot == 0 && keys.compareAndSet(index, 0, stored)) {
+        used.incrementAndGet();
+        return index;
+      }
+      if (keys.get(index) == stored) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  /** Gets the number of simulations through a node, virtual losses included */
+  public int visits(int node) {
+    return visits.get(node);
+  }
+
+  /** Gets the total score of the simulations through a node, in half points */
+  public int score(int node) {
+    return scores.get(node);
+  }
+
+  /** Counts a simulation going through a node, scored as a loss until its result is added */
+  public void addVisit(int node) {
+    visits.getAndIncrement(node);
+  }
+
+  /** Adds the result of a simulation which went through a node, in half points */
+  public void addScore(int node, int score) {
+    if (score != 0) {
+      scores.getAndAdd(node, score);
+    }
+  }
+
+  /** Gets the number of AMAF simulations of a cell at a node */
+  public int amafVisits(int node, int cell) {
+    return amafVisits.get(node * GameState.CELL_COUNT + cell);
+  }
+
+  /** Gets the total AMAF score of a cell at a node, in half points */
+  public int amafScore(int node, int cell) {
+    return amafScores.get(node * GameState.CELL_COUNT + cell);
+  }
+
+  /** Adds the result of a simulation in which the player to move at a node marked a cell */
+  public void addAmaf(int node, int cell, int score) {
+    amafVisits.getAndIncrement(node * GameState.CELL_COUNT + cell);
+    if (score != 0) {
+      amafScores.getAndAdd(node * GameState.CELL_COUNT + cell, score);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "nodes " + used.get() + " of " + size();
+  }
+}
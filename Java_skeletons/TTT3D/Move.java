@@ -1,6 +1,4 @@
 import java.util.StringTokenizer;
-import java.util.Vector;
-import java.lang.Integer;
 
 /**
  * Encapsulates a move
@@ -11,6 +9,14 @@ import java.lang.Integer;
  * The functions isNormal() and isEOG() might be useful.
  *
  * You can probably ignore the rest of the interface.
+ *
+ * Moves are immutable. A move marking a cell is one of a finite set (cell,
+ * player and normal, win or draw), packed into an int by pack, and of(packed)
+ * gets the one instance of it from a table, together with its message, so
+ * generating a move allocates nothing and two such moves compare as ints.
+ * The table is built at start-up for the cells of GameState, and filled on
+ * first use for the cells of larger boards, which would take far longer to
+ * build than a move is given.
  */
 public class Move {
   /**
@@ -28,10 +34,25 @@ public class Move {
   public static final int SPECIAL_WIN   = 1;    ///< special move - win
   public static final int SPECIAL_DRAW  = 2;    ///< special move - draw
 
+  public static final int MAX_CELLS = 4096;   ///< cells of the largest board, the 16x16x16 one of CubeLines
+
   private static final String DELIMITER = "_";
+  private static final int[] NO_DATA = new int[0];
+
+  /** Moves marking a cell, by packed int */
+  private static final Move[] MOVES = new Move[MAX_CELLS << 3];
 
-  private int type;
-  private Vector<Integer> data = new Vector<Integer>();
+  static {
+    for (int cell = 0; cell < GameState.CELL_COUNT; ++cell)
+      for (int player = Constants.CELL_X; player <= Constants.CELL_O; ++player)
+        for (int special = SPECIAL_NONE; special <= SPECIAL_DRAW; ++special)
+          MOVES[pack(cell, player, special)] = new Move(cell, player, special);
+  }
+
+  private final int type;
+  private final int[] data;
+  private final int packed;      ///< the packed int of a move marking a cell, -1 for other moves
+  private final String message;
 
   /**
    * Constructs a specific type of move.
@@ -41,7 +62,10 @@ public class Move {
    * @return
    */
   public Move(int moveType) {
-    setType(moveType);
+    this.type = moveType;
+    this.data = NO_DATA;
+    this.packed = -1;
+    this.message = buildMessage();
   }
 
   /**
@@ -59,10 +83,7 @@ public class Move {
    */
 
   public Move(int p1, int p2) {
-    this(MOVE_NORMAL);
-    this.data.setSize(0);
-    this.data.add(p1);
-    this.data.add(p2);
+    this(p1, p2, SPECIAL_NONE);
   }
     
   /**
@@ -74,16 +95,58 @@ public class Move {
    */
 
   public Move(int p1, int p2, int specialMove) {
-    this(p1, p2);
+    int moveType = MOVE_NORMAL;
     if (specialMove == SPECIAL_DRAW) {
-      setType(MOVE_DRAW);
+      moveType = MOVE_DRAW;
     }
     if (specialMove == SPECIAL_WIN) {
       if (p2 == Constants.CELL_O)
-        setType(MOVE_OW);
+        moveType = MOVE_OW;
       if (p2 == Constants.CELL_X)
-        setType(MOVE_XW);     
+        moveType = MOVE_XW;
     }
+    this.type = moveType;
+    this.data = new int[] { p1, p2 };
+    this.packed = packOf(moveType, this.data);
+    this.message = buildMessage();
+  }
+
+  /**
+   * Packs a move marking a cell into an int, from 0 to 8 * MAX_CELLS - 1.
+   *
+   * @param cell the cell marked
+   * @param player the player marking it
+   * @param specialMove SPECIAL_NONE, SPECIAL_WIN or SPECIAL_DRAW
+   */
+  public static int pack(int cell, int player, int specialMove) {
+    return (cell << 3) | ((player - Constants.CELL_X) << 2) | specialMove;
+  }
+
+  /**
+   * Gets the move of a packed int.
+   *
+   * @param packed an int returned by pack
+   */
+  public static Move of(int packed) {
+    Move move = MOVES[packed];
+    if (move == null) {
+      // Moves are immutable, so another thread sees this one whole, and two
+      // threads building it at once still make equal moves
+      move = new Move(packed >>> 3, ((packed >>> 2) & 1) + Constants.CELL_X, packed & 3);
+      MOVES[packed] = move;
+    }
+    return move;
+  }
+
+  /**
+   * Gets the move of a player marking a cell, the same instance each time.
+   *
+   * @param cell the cell marked
+   * @param player the player marking it
+   * @param specialMove SPECIAL_NONE, SPECIAL_WIN or SPECIAL_DRAW
+   */
+  public static Move of(int cell, int player, int specialMove) {
+    return of(pack(cell, player, specialMove));
   }
 
   /**
@@ -96,7 +159,7 @@ public class Move {
     StringTokenizer st = new StringTokenizer(string, DELIMITER);
     String str = st.nextToken();
 
-    setType(Integer.parseInt(str));
+    int type = Integer.parseInt(str);
 
     int length = 0;
 
@@ -119,17 +182,40 @@ public class Move {
     }
 
     if ((length > 12) || (type < MOVE_NULL)) {
-      setType(MOVE_NULL);
-      return;
+      type = MOVE_NULL;
+      length = 0;
     }
-            
-    this.data.setSize(length);
-            
+
+    this.type = type;
+    this.data = new int[length];
+
     for (int i = 0; i < length; ++i) {
       str = st.nextToken();
       int cell = Integer.parseInt(str);
-      this.data.set(i, cell);
+      this.data[i] = cell;
     }
+
+    this.packed = packOf(type, this.data);
+    this.message = buildMessage();
+  }
+
+  /**
+   * Gets the packed int of a move of the given type and cells, or -1 if it
+   * does not mark a cell.
+   */
+  private static int packOf(int type, int[] data) {
+    if (data.length != 2 || data[0] < 0 || data[0] >= MAX_CELLS)
+      return -1;
+    int player = data[1];
+    if (player != Constants.CELL_X && player != Constants.CELL_O)
+      return -1;
+    if (type == MOVE_NORMAL)
+      return pack(data[0], player, SPECIAL_NONE);
+    if (type == MOVE_DRAW)
+      return pack(data[0], player, SPECIAL_DRAW);
+    if (type == ((player == Constants.CELL_X) ? MOVE_XW : MOVE_OW))
+      return pack(data[0], player, SPECIAL_WIN);
+    return -1;
   }
 
   /**
@@ -187,34 +273,41 @@ public class Move {
   public int getType() {
     return this.type;
   }
-  
-  private void setType(int moveType) {
-    this.type = moveType;
+
+  /**
+   * Gets the packed int of a move marking a cell, or -1 for other moves.
+   */
+  public int getPacked() {
+    return this.packed;
   }
-  
+
   /**
    * Gets the length of the move sequence.
    */
   public int getLength() {
-    return this.data.size();
+    return this.data.length;
   }
 
   /**
    * Gets the pN-th cell in the move sequence.
    */
   public int at(int pN) {
-    return this.data.elementAt(pN);
+    return this.data[pN];
   }
 
   /**
    * Converts the move to a string so that it can be sent to the other player.
    */
   public String toMessage() {
+    return this.message;
+  }
+
+  private String buildMessage() {
     String str = new String();
     str = str + type;
 
-    for (int i = 0; i < this.data.size(); ++i) {
-      str = str + DELIMITER + this.data.elementAt(i);
+    for (int i = 0; i < this.data.length; ++i) {
+      str = str + DELIMITER + this.data[i];
     }
 
     return str;
@@ -241,13 +334,13 @@ public class Move {
     String str = new String();
     String delimiter = isNormal() ? "-" : "x";
 
-    assert(this.data.size() > 0);
+    assert(this.data.length > 0);
 
     // Concatenate all the cell numbers
-    str = str + this.data.elementAt(0);
+    str = str + this.data[0];
 
-    for (int i = 1; i < this.data.size(); ++i) {
-      str = str + delimiter + this.data.elementAt(i);
+    for (int i = 1; i < this.data.length; ++i) {
+      str = str + delimiter + this.data[i];
     }
 
     return str;
@@ -257,20 +350,15 @@ public class Move {
    * Checks if the two objects represent the same move.
    */
   public boolean equals(final Move otherMove) {
-    if (this.type != otherMove.type) {
-      return false;
+    // Moves marking a cell are equal when their packed ints are
+    if (this.packed >= 0 || otherMove.packed >= 0) {
+      return this.packed == otherMove.packed;
     }
 
-    if (this.data.size() != otherMove.data.size()) {
+    if (this.type != otherMove.type) {
       return false;
     }
 
-    for (int i = 0; i < this.data.size(); ++i) {
-      if (this.data.elementAt(i) != otherMove.data.elementAt(i)) {
-        return false;
-      }
-    }
-
-    return true;
+    return java.util.Arrays.equals(this.data, otherMove.data);
   }
 }
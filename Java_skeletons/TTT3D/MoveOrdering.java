@@ -0,0 +1,107 @@
+/**
+ * Sorts the moves of a node so that alphabeta tries the most promising
+ * ones first.
+ *
+ * Moves are ranked by, in this order: winning at once, blocking a line the
+ * opponent would complete, being a killer move of the ply (a move which
+ * caused a cutoff in a sibling node), the history score of the cell (how
+ * often and how deep it caused cutoffs) and the number of winning lines
+ * through the cell.
+ */
+public class MoveOrdering {
+  private static final int KILLERS = 2;              ///< killer moves kept per ply
+  private static final int HISTORY_MAX = 1 << 22;    ///< cap of a history score
+
+  private static final int WIN_SCORE    = 1 << 30;
+  private static final int BLOCK_SCORE  = 1 << 29;
+  private static final int KILLER_SCORE = 1 << 27;
+
+  private final int[][] killers;
+  private final int[][] history = new int[Constants.CELL_O + 1][GameState.CELL_COUNT];
+  private final int[] scores = new int[GameState.CELL_COUNT];
+
+  /**
+   * Creates an ordering for searches of at most maxPly plies.
+   */
+  public MoveOrdering(int maxPly) {
+    killers = new int[maxPly + 1][KILLERS];
+    clearKillers();
+  }
+
+  /**
+   * Prepares for a new search: killers are forgotten and history scores
+   * fade, so that older cutoffs weigh less than recent ones.
+   */
+  public void newSearch() {
+    clearKillers();
+    for (int[] playerHistory : history)
+      for (int cell = 0; cell < GameState.CELL_COUNT; ++cell)
+        playerHistory[cell] /= 2;
+  }
+
+  private void clearKillers() {
+    for (int[] plyKillers : killers)
+      java.util.Arrays.fill(plyKillers, -1);
+  }
+
+  /**
+   * Sorts the moves of the next player of a board, best first.
+   *
+   * @param board the position the moves are played from
+   * @param moves the cells to sort, as returned by BitGameState.getMoves
+   * @param count the number of cells in moves
+   * @param ply the distance of the position from the root of the search
+   */
+  public void order(BitGameState board, int[] moves, int count, int ply) {
+    int player = board.getNextPlayer();
+    int opponent = player ^ (Constants.CELL_X | Constants.CELL_O);
+    long wins = board.getWinCells(player);
+    long blocks = board.getWinCells(opponent);
+    int[] plyKillers = killers[ply];
+
+    for (int i = 0; i < count; ++i) {
+      int cell = moves[i];
+      int score = Math.min(history[player][cell], HISTORY_MAX) * 8
+          + BitGameState.CELL_LINES[cell].length;
+      if ((wins & (1L << cell)) != 0) {
+        score += WIN_SCORE;
+      }
+      else if ((blocks & (1L << cell)) != 0) {
+        score += BLOCK_SCORE;
+      }
+      for (int k = 0; k < KILLERS; ++k) {
+        if (plyKillers[k] == cell) {
+          score += KILLER_SCORE >> k;
+        }
+      }
+
+      // Insertion sort, the lists being short
+      int j = i;
+      while (j > 0 && scores[j - 1] < score) {
+        scores[j] = scores[j - 1];
+        moves[j] = moves[j - 1];
+        j--;
+      }
+      scores[j] = score;
+      moves[j] = cell;
+    }
+  }
+
+  /**
+   * Records a move which caused a cutoff.
+   *
+   * @param player the player who played the move
+   * @param cell the cell of the move
+   * @param ply the distance of the position from the root of the search
+   * @param depth the depth left to search at the position
+   */
+  public void addCutoff(int player, int cell, int ply, int depth) {
+    int[] plyKillers = killers[ply];
+    if (plyKillers[0] != cell) {
+      for (int k = KILLERS - 1; k > 0; --k)
+        plyKillers[k] = plyKillers[k - 1];
+      plyKillers[0] = cell;
+    }
+    history[player][cell] = Math.min(history[player][cell] + depth * depth, HISTORY_MAX);
+  }
+}
@@ -0,0 +1,113 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A book of precomputed moves for the first plies of the game.
+ *
+ * The book only holds one position of each group of symmetric positions: a
+ * position is looked up by its canonical key, and the move stored is in the
+ * canonical frame, so it is mapped back through the inverse of the canonical
+ * symmetry before being played.
+ *
+ * The file is a header (the MAGIC number and the entry count, as ints)
+ * followed by the entries sorted by key, each one being the key as a long and
+ * the cell as a byte. It is memory-mapped and searched by bisection.
+ */
+public class OpeningBook {
+  public static final int MAGIC = 0x54334442;   ///< "T3DB"
+
+  private static final int HEADER_BYTES = 8;
+  private static final int ENTRY_BYTES = 9;
+
+  private final MappedByteBuffer buffer;
+  private final int count;
+
+  /**
+   * Maps a book file.
+   *
+   * @param path the file, written by write
+   * @throws IOException if the file cannot be read or is not a book
+   */
+  public OpeningBook(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not an opening book: " + path);
+    }
+    count = buffer.getInt(4);
+    if (buffer.capacity() < HEADER_BYTES + (long) count * ENTRY_BYTES) {
+      throw new IOException("Truncated opening book: " + path);
+    }
+  }
+
+  /**
+   * Gets the number of positions in the book.
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Looks up the move to play from a position.
+   *
+   * @param board the position
+   * @return the cell to play, or -1 if the position is not in the book
+   */
+  public int lookup(BitGameState board) {
+    int symmetry = board.getCanonicalSymmetry();
+    long key = board.getKey(symmetry);
+
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long middleKey = buffer.getLong(HEADER_BYTES + middle * ENTRY_BYTES);
+      if (middleKey < key) {
+        low = middle + 1;
+      }
+      else if (middleKey > key) {
+        high = middle - 1;
+      }
+      else {
+        int cell = Symmetry.INVERSES[symmetry][buffer.get(HEADER_BYTES + middle * ENTRY_BYTES + 8)];
+        return (board.at(cell) == Constants.CELL_EMPTY) ? cell : -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Writes a book file.
+   *
+   * @param path the file to write
+   * @param keys the canonical keys of the positions
+   * @param cells the moves to play, in the canonical frame of each position
+   * @param count the number of positions
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(Path path, long[] keys, int[] cells, int count)
+      throws IOException {
+    Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++)
+      order[i] = i;
+    Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(path)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(count);
+      for (int i : order) {
+        out.writeLong(keys[i]);
+        out.writeByte(cells[i]);
+      }
+    }
+  }
+}
@@ -1,10 +1,156 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Player implements Engine {
+
+  private static final int depthLimit = GameState.CELL_COUNT;   ///< deepest iteration ever searched
+  private static final long tableMemory = 64L << 20;   ///< bytes used by the transposition table
+  private static final int canonicalDepth = 3;          ///< depth from which table keys are symmetry-reduced
+  private static final int threatDepth = 32;            ///< deepest threat sequence looked for
+  private static final long threatMemory = 8L << 20;    ///< bytes used by the threat search table
+  private static final int solveEmptyCells = 40;       ///< empty cells from which the proof-number solver runs
+  private static final long solverMemory = 32L << 20;   ///< bytes used by the proof-number solver table
+  private static final int searchThreads = 1;           ///< threads searching a move, this one included
+  static final String bookFile = "book3d.bin";          ///< opening book, used when the file exists
+  static final String cacheFile = "cache3d.bin";        ///< position cache shared by games, used when the file exists
+  private static final long cacheMemory = 64L << 20;    ///< bytes of the position cache when it is recreated
+  private static final int cacheDepth = 5;              ///< depth from which results go through the position cache
+  private static final float WIN_SCORE = 1e20f;         ///< value of a won position, above any heuristic score
+  private static final float WIN_STEP = 1e18f;          ///< bonus of a win for every ply it is closer to the root
+  private static final float aspirationWidth = 0.25f;   ///< half width of the first aspiration window, relative to the score
+  private static final float aspirationGrowth = 16;     ///< widening of the window after a failed search
+  private static final int aspirationRetries = 2;       ///< failed searches before a side of the window is opened fully
+  private int depthMax;
+  private int playerMax;
+  private int nextMove;
+
+  /* The board searched in place, and the moves found at every depth */
+  private BitGameState board;
+  private final int[][] moves = new int[depthLimit + 1][GameState.CELL_COUNT];
+  /* Scores of the children of the depth 1 node being searched */
+  private final float[] childScores = new float[GameState.CELL_COUNT];
+
+  /* Time control: a search is abandoned once less than stopMargin is left,
+   * or, for helpers, once the main search is over */
+  private Deadline deadline;
+  private long stopMargin;
+  private long nodes;
+  private int traceCountdown = LeafTrace.RATE;
+  private int completedDepth;
+  private final long[] depthNodes = new long[depthLimit + 1];
+  private final float[] depthScores = new float[depthLimit + 1];
+  private boolean timeout;
+  private volatile boolean stop;
+
+  /* Results of earlier searches, scored for playerMax and shared by all the
+   * threads */
+  private final TranspositionTable table;
+
+  private final ThreatSearch threats;
+
+  private final ProofNumberSearch solver;
+
+  private final MoveOrdering ordering = new MoveOrdering(depthLimit);
+
+  private final OpeningBook book;
+
+  /* Deep results kept from earlier games, scored for playerMax: their keys
+   * are salted with it, as both players may share the file */
+  private final PositionCache cache;
+  private static final long[] CACHE_SALTS = { 0, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L };
+
+  /* Lazy SMP: helpers run the same search on their own board in other
+   * threads, and only share their results through the table. The helper
+   * number (0 for the main search) varies the first depth and the root move
+   * order, so that helpers do not all search the same tree. */
+  private final int helper;
+  private final Player[] helpers;
+  private final ExecutorService pool;
 
-public class Player {
+  /**
+   * Creates a player searching with searchThreads threads.
+   */
+  public Player() {
+    this(searchThreads);
+  }
 
-  private static final int depthMax = 1;
-  private int playerMax;
-  private GameState nextMove;
+  /**
+   * Creates a player searching with the given number of threads.
+   *
+   * @param threads the number of threads, at least 1
+   */
+  public Player(int threads) {
+    this(threads, true);
+  }
+
+  /**
+   * Creates a player searching with the given number of threads, and
+   * playing from the opening book or not.
+   *
+   * @param threads the number of threads, at least 1
+   * @param useBook whether to play book moves; BookGenerator searches every
+   *        position, even with an older book in the working directory
+   */
+  public Player(int threads, boolean useBook) {
+    this.table = new TranspositionTable(tableMemory);
+    this.threats = new ThreatSearch(threatMemory);
+    this.solver = new ProofNumberSearch(solverMemory);
+    this.book = useBook ? loadBook() : null;
+    this.cache = loadCache();
+    this.helper = 0;
+    this.helpers = new Player[threads - 1];
+    for (int i = 0; i < helpers.length; i++) {
+      helpers[i] = new Player(table, cache, i + 1);
+    }
+    this.pool = (threads > 1) ? Executors.newFixedThreadPool(threads - 1, runnable -> {
+      Thread thread = new Thread(runnable, "search helper");
+      thread.setDaemon(true);
+      return thread;
+    }) : null;
+  }
+
+  /**
+   * Creates a helper sharing the table and cache of the main player.
+   */
+  private Player(TranspositionTable table, PositionCache cache, int helper) {
+    this.table = table;
+    this.threats = null;
+    this.solver = null;
+    this.book = null;
+    this.cache = cache;
+    this.helper = helper;
+    this.helpers = new Player[0];
+    this.pool = null;
+  }
+
+  private static OpeningBook loadBook() {
+    if (!Files.exists(Paths.get(bookFile))) {
+      return null;
+    }
+    try {
+      return new OpeningBook(Paths.get(bookFile));
+    } catch (IOException e) {
+      System.err.println("Ignoring opening book: " + e.getMessage());
+      return null;
+    }
+  }
+
+  private static PositionCache loadCache() {
+    if (!Files.exists(Paths.get(cacheFile))) {
+      return null;
+    }
+    try {
+      return new PositionCache(Paths.get(cacheFile), cacheMemory);
+    } catch (IOException e) {
+      System.err.println("Ignoring position cache: " + e.getMessage());
+      return null;
+    }
+  }
 
   /**
   * Performs a move
@@ -16,10 +162,10 @@ public class Player {
   * @return the next state the board is in after our move
   */
   public GameState play(final GameState gameState, final Deadline deadline) {
-    Vector<GameState> nextStates = new Vector<GameState>();
-    gameState.findPossibleMoves(nextStates);
+    board = new BitGameState(gameState);
 
-    if (nextStates.size() == 0) {
+    int emptyCells = board.getMoves(moves[0]);
+    if (emptyCells == 0) {
       // Must play "pass" move if there are no other moves possible.
       return new GameState(gameState, new Move());
     }
@@ -29,65 +175,414 @@ public class Player {
     * the best next state. This skeleton returns a random move instead.
     */
 
+    if (book != null) {
+      int bookMove = book.lookup(board);
+      if (bookMove >= 0) {
+        return new GameState(gameState, board.toMove(bookMove));
+      }
+    }
+
+    if (playerMax != gameState.getNextPlayer()) {
+      table.clear();
+    }
     playerMax = gameState.getNextPlayer();
-    alphabeta(gameState, depthMax, -Float.MAX_VALUE, Float.MAX_VALUE);
+    table.newSearch();
+
+    this.deadline = deadline;
+    long budget = deadline.timeUntil();
+    stopMargin = budget / 10;
+    nodes = 0;
+    completedDepth = 0;
+
+    // A forced win made of threats is played without further search. It
+    // may use a fifth of the time.
+    int win = threats.findWin(board, threatDepth, deadline, budget - budget / 5);
+    if (win >= 0) {
+      return new GameState(gameState, board.toMove(win));
+    }
+
+    // Late in the game the position may be solved outright. A proven win or
+    // draw is played; a loss or an unsolved position is left to alphabeta,
+    // which still gets at least two fifths of the time.
+    if (emptyCells <= solveEmptyCells) {
+      int result = solver.solve(board, deadline, budget - budget * 3 / 5);
+      if (result == ProofNumberSearch.WIN || result == ProofNumberSearch.DRAW) {
+        return new GameState(gameState, board.toMove(solver.getMove()));
+      }
+    }
 
-    return nextMove;
+    List<Future<?>> running = new ArrayList<Future<?>>();
+    for (Player h : helpers) {
+      h.prepare(new BitGameState(gameState), playerMax);
+      running.add(pool.submit(() -> h.iterate(emptyCells, 0)));
+    }
+
+    // The threat search and the solver may have used most of the budget
+    int bestMove = iterate(emptyCells, deadline.timeUntil());
+
+    for (Player h : helpers) {
+      h.stop = true;
+    }
+    for (Future<?> future : running) {
+      try {
+        future.get();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    return new GameState(gameState, board.toMove(bestMove));
     // Random random = new Random();
     // return nextStates.elementAt(random.nextInt(nextStates.size()));
   }
 
+  /**
+   * Sets up a helper for a new search.
+   */
+  private void prepare(BitGameState board, int playerMax) {
+    this.board = board;
+    this.playerMax = playerMax;
+    this.deadline = null;
+    this.stop = false;
+    this.nodes = 0;
+    this.completedDepth = 0;
+  }
+
+  /**
+   * Searches the board by iterative deepening: one ply deeper each time,
+   * until the time left is unlikely to be enough for the next iteration.
+   * The best move of the last completed iteration is kept, and tried first
+   * by the next one.
+   *
+   * @param emptyCells the number of empty cells of the board
+   * @param budget the time left when the search starts, unused by helpers
+   * @return the best move found
+   */
+  private int iterate(int emptyCells, long budget) {
+    ordering.newSearch();
+    timeout = false;
+
+    int bestMove = board.getMoves(moves[0]) > 0 ? moves[0][0] : 0;
+    nextMove = bestMove;
+    java.util.Arrays.fill(depthNodes, 0);
+    int firstDepth = 1 + helper % 2;
+    for (depthMax = firstDepth; depthMax <= Math.min(emptyCells, depthLimit); depthMax++) {
+      // Aspiration: the window is first set around the score of the search
+      // two plies shallower (scores swing too much between odd and even
+      // depths to use the last one), and widened on the side the search
+      // fails, until it is fully open
+      float alpha = -Float.MAX_VALUE;
+      float beta = Float.MAX_VALUE;
+      float score = (depthMax > 2) ? depthScores[depthMax - 2] : 0;
+      float delta = Math.max(Math.abs(score) * aspirationWidth, 1);
+      int failures = 0;
+      if (depthMax > 2 && depthNodes[depthMax - 2] > 0 && Math.abs(score) < WIN_SCORE) {
+        alpha = score - delta;
+        beta = score + delta;
+      }
+      while (true) {
+        float v = alphabeta(depthMax, alpha, beta);
+        if (timeout) {
+          break;
+        }
+        delta *= aspirationGrowth;
+        if (v <= alpha && alpha != -Float.MAX_VALUE) {
+          alpha = (++failures > aspirationRetries) ? -Float.MAX_VALUE : v - delta;
+        }
+        else if (v >= beta && beta != Float.MAX_VALUE) {
+          beta = (++failures > aspirationRetries) ? Float.MAX_VALUE : v + delta;
+        }
+        else {
+          depthScores[depthMax] = v;
+          break;
+        }
+      }
+      if (timeout) {
+        // Nothing better than the partial result without a completed iteration
+        if (completedDepth == 0) bestMove = nextMove;
+        break;
+      }
+      bestMove = nextMove;
+      completedDepth = depthMax;
+      depthNodes[depthMax] = nodes;
+      if (deadline != null && deadline.timeUntil() < budget / 2) {
+        break;
+      }
+    }
+    return bestMove;
+  }
+
+  /**
+   * Gets the number of nodes searched for the last move, by all threads.
+   */
+  public long getNodes() {
+    long total = nodes;
+    for (Player h : helpers) {
+      total += h.nodes;
+    }
+    return total;
+  }
+
+  /**
+   * Gets the depth of the last completed iteration of the last move.
+   */
+  public int getDepth() {
+    return completedDepth;
+  }
+
+  /**
+   * Gets the number of nodes the main search of the last move had searched
+   * when it completed an iteration.
+   *
+   * @param depth the depth of the iteration
+   * @return the nodes, or 0 if the iteration was not completed
+   */
+  public long getDepthNodes(int depth) {
+    return (depth < depthNodes.length) ? depthNodes[depth] : 0;
+  }
+
+  /**
+   * Gets the transposition table of the player.
+   */
+  public TranspositionTable getTable() {
+    return table;
+  }
+
   /**
   *  ALPHABETA
   *
   */
-  private float alphabeta(GameState gameState, int depth, float alpha, float beta){
-    // state : the current state we are analyzing
+  private float alphabeta(int depth, float alpha, float beta){
+    // board : the current state we are analyzing, moves are applied and
+    //         undone in place
     // alpha : the current best value achievable by A
     // beta : the current best value achievable by B
     // returns the minimax value of the state
 
-    Vector<GameState> nextStates = new Vector<GameState>();
-    gameState.findPossibleMoves(nextStates);
-    int player = gameState.getNextPlayer();
+    if (isTimeout()) {
+      return 0;
+    }
+
+    int[] nextMoves = moves[depth];
+    // Symmetric root moves lead to the same value, so only one is searched
+    int moveCount = (depth == depthMax) ? board.getUniqueMoves(nextMoves)
+        : board.getMoves(nextMoves);
+    int player = board.getNextPlayer();
+    int ply = depthMax - depth;
 
     float v;
 
-    if (nextStates.size() == 0 || depth == 0){
-      v = eval3D(gameState);
-      System.err.println(v);
+    if (moveCount == 0 || depth == 0){
+      v = board.getScore(playerMax);
+      // Run with -ea to check the incremental score against eval3D
+      assert(Math.abs(v - eval3D(board)) <= Math.ulp(v));
+      if (LeafTrace.ENABLED) trace(board.getKey(), v);
+      return v;
+    }
+
+    // A player who can complete a line wins, and one who cannot but faces
+    // such a line has to block it; two of them cannot both be blocked. The
+    // root still picks a move, among the winning or blocking ones.
+    long wins = board.getWinCells(player);
+    long blocks = board.getWinCells(player ^ (Constants.CELL_X | Constants.CELL_O));
+    if (depth != depthMax) {
+      if (wins != 0) {
+        return (player == playerMax) ? winScore(depth) : -winScore(depth);
+      }
+      if (Long.bitCount(blocks) > 1) {
+        return (player == playerMax) ? -winScore(depth - 1) : winScore(depth - 1);
+      }
+    }
+    long forced = (wins != 0) ? wins & -wins : blocks;
+    if (forced != 0) {
+      moveCount = 0;
+      for (; forced != 0; forced &= forced - 1) {
+        nextMoves[moveCount++] = Long.numberOfTrailingZeros(forced);
+      }
+    }
+
+    float alphaOrig = alpha;
+    float betaOrig = beta;
+    int bestMove = TranspositionTable.NO_MOVE;
+
+    ordering.order(board, nextMoves, moveCount, ply);
+
+    // Look for an earlier result, which may settle this node or at least
+    // tell which move to try first. Deep nodes share their entry with all
+    // their symmetric positions, and the move stored is then the image of
+    // the best move under the canonical symmetry.
+    int symmetry = (depth >= canonicalDepth) ? board.getCanonicalSymmetry() : 0;
+    long key = (depth >= canonicalDepth) ? board.getKey(symmetry) : board.getKey();
+    long entry = table.probe(key);
+    // Deep nodes may also have been searched by an earlier game
+    if (cache != null && depth >= cacheDepth
+        && (entry == 0 || TranspositionTable.depth(entry) < depth)) {
+      long cached = cache.probe(key ^ CACHE_SALTS[playerMax]);
+      if (cached != 0 && (entry == 0 || TranspositionTable.depth(cached) > TranspositionTable.depth(entry))) {
+        entry = cached;
+      }
+    }
+    if (entry != 0) {
+      if (depth != depthMax && TranspositionTable.depth(entry) >= depth) {
+        float score = TranspositionTable.score(entry);
+        int bound = TranspositionTable.bound(entry);
+        if (bound == TranspositionTable.BOUND_EXACT) return score;
+        if (bound == TranspositionTable.BOUND_LOWER) alpha = Math.max(alpha, score);
+        if (bound == TranspositionTable.BOUND_UPPER) beta = Math.min(beta, score);
+        if (beta <= alpha) return score;
+      }
+      int tableMove = TranspositionTable.move(entry);
+      if (tableMove != TranspositionTable.NO_MOVE) {
+        moveToFront(nextMoves, moveCount, Symmetry.INVERSES[symmetry][tableMove]);
+      }
+    }
+    // The root starts with the best move of the previous iteration, except
+    // in helpers which start elsewhere
+    if (depth == depthMax) {
+      moveToFront(nextMoves, moveCount, nextMove);
+      if (helper > 0) {
+        moveToFront(nextMoves, moveCount, nextMoves[helper % moveCount]);
+      }
+    }
+
+    // The children of a depth 1 node are all leaves, which are scored at
+    // once rather than one apply and undo at a time
+    if (depth == 1) {
+      board.scoreChildren(nextMoves, moveCount, playerMax, childScores);
     }
 
-    else if (player == playerMax) {
+    if (player == playerMax) {
       v = -Float.MAX_VALUE;
 
       //Let's initialize nextMove as the first child of the tree
-      if (depth==depthMax) nextMove = nextStates.elementAt(0);
+      if (depth==depthMax) nextMove = nextMoves[0];
 
-      for (int i = 0; i < nextStates.size(); i++){
-        v = Math.max(v, alphabeta(nextStates.elementAt(i), depth-1, alpha, beta));
-        if (depth == depthMax && v>alpha) nextMove = nextStates.elementAt(i);
+      for (int i = 0; i < moveCount; i++){
+        float child;
+        if (i == 0 || depth == 1) {
+          child = searchChild(i, depth, alpha, beta);
+        }
+        else {
+          // PVS: a null window tells whether the move beats the best one,
+          // and only a move which does is searched again with the window
+          child = searchChild(i, depth, alpha, Math.nextUp(alpha));
+          if (!timeout && child > alpha && child < beta) {
+            child = searchChild(i, depth, alpha, beta);
+          }
+        }
+        if (timeout) return 0;
+        if (child > v || bestMove == TranspositionTable.NO_MOVE) bestMove = nextMoves[i];
+        v = Math.max(v, child);
+        if (depth == depthMax && v>alpha) nextMove = nextMoves[i];
         alpha = Math.max(alpha,v);
-        if (beta <= alpha) break;
+        if (beta <= alpha) {
+          ordering.addCutoff(player, nextMoves[i], ply, depth);
+          break;
+        }
       }
     }
 
     else {
       v = Float.MAX_VALUE;
-      for (int i = 0; i < nextStates.size(); i++){
-        v = Math.min(v, alphabeta(nextStates.elementAt(i), depth-1, alpha, beta));
+      for (int i = 0; i < moveCount; i++){
+        float child;
+        if (i == 0 || depth == 1) {
+          child = searchChild(i, depth, alpha, beta);
+        }
+        else {
+          child = searchChild(i, depth, Math.nextDown(beta), beta);
+          if (!timeout && child < beta && child > alpha) {
+            child = searchChild(i, depth, alpha, beta);
+          }
+        }
+        if (timeout) return 0;
+        if (child < v || bestMove == TranspositionTable.NO_MOVE) bestMove = nextMoves[i];
+        v = Math.min(v, child);
         beta  = Math.min(beta, v);
-        if (beta <= alpha) break;
+        if (beta <= alpha) {
+          ordering.addCutoff(player, nextMoves[i], ply, depth);
+          break;
+        }
       }
     }
+
+    int bound = (v <= alphaOrig) ? TranspositionTable.BOUND_UPPER
+        : (v >= betaOrig) ? TranspositionTable.BOUND_LOWER
+        : TranspositionTable.BOUND_EXACT;
+    table.store(key, depth, bound, v, Symmetry.PERMUTATIONS[symmetry][bestMove]);
+    if (cache != null && depth >= cacheDepth) {
+      cache.store(key ^ CACHE_SALTS[playerMax], depth, bound, v,
+          Symmetry.PERMUTATIONS[symmetry][bestMove]);
+    }
     return v;
   }
 
+  /**
+   * Gets the value of a win for playerMax found depth plies above the
+   * leaves, quicker wins being worth more.
+   */
+  private static float winScore(int depth) {
+    return WIN_SCORE + depth * WIN_STEP;
+  }
+
+  /**
+   * Gets the value of the i-th move of a node, searched one ply less deep.
+   * Below a depth 1 node the value is the score computed by scoreChildren.
+   */
+  private float searchChild(int i, int depth, float alpha, float beta) {
+    if (depth == 1) {
+      if (isTimeout()) {
+        return 0;
+      }
+      if (LeafTrace.ENABLED) trace(board.getKeyAfter(moves[depth][i]), childScores[i]);
+      return childScores[i];
+    }
+    board.apply(moves[depth][i]);
+    float child = alphabeta(depth - 1, alpha, beta);
+    board.undo();
+    return child;
+  }
+
+  /**
+   * Passes one leaf in LeafTrace.RATE to the trace.
+   */
+  private void trace(long key, float score) {
+    if (--traceCountdown == 0) {
+      traceCountdown = LeafTrace.RATE;
+      LeafTrace.record(key, score);
+    }
+  }
+
+  /**
+   * Counts a node, and every 1024 nodes checks whether the search has to
+   * stop.
+   */
+  private boolean isTimeout() {
+    if ((++nodes & 1023) == 0
+        && (stop || (deadline != null && deadline.timeUntil() < stopMargin))) {
+      timeout = true;
+    }
+    return timeout;
+  }
+
+  /**
+   * Swaps a cell, if present, to the front of a list of moves.
+   */
+  private static void moveToFront(int[] moves, int count, int cell) {
+    for (int i = 1; i < count; i++) {
+      if (moves[i] == cell) {
+        moves[i] = moves[0];
+        moves[0] = cell;
+        return;
+      }
+    }
+  }
+
   /**
   *  EVAL3D
   *
   */
-  private float eval3D(GameState gameState){
+  private float eval3D(BitGameState gameState){
     int player = playerMax;
     double eval = 0;
     int opponent = player % 2 + 1;
@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A table of search results kept in a file, so that deep results outlive the
+ * process which found them.
+ *
+ * The file is memory-mapped and laid out like a TranspositionTable: entries
+ * of a key and a data word, the key being stored XORed with the data word.
+ * Several processes (and the threads of each) can map the same file at once
+ * without locking: an entry whose two words come from different writers no
+ * longer matches its key, and is treated as missing.
+ *
+ * Every process opening the file starts a new generation, kept in the
+ * header, which is the age of the entries it writes. A slot holding another
+ * position is only kept when its result is deeper and less than ageLimit
+ * generations old, so the results of old games make way for new ones.
+ *
+ * The header holds the MAGIC number, the VERSION of the scores, the entry
+ * count and the generation, as ints. A file written for another version is
+ * emptied when opened.
+ */
+public class PositionCache {
+  public static final int MAGIC = 0x54334443;   ///< "T3DC"
+  public static final int VERSION = 1;          ///< changes whenever the scores stored change meaning
+
+  private static final int HEADER_BYTES = 16;
+  private static final int GENERATION_OFFSET = 12;
+  private static final int MAX_ENTRIES = 1 << 26;   ///< the most a mapping of under 2 GB holds
+  private static final int ageLimit = 32;       ///< generations for which a deeper entry is kept
+
+  private final MappedByteBuffer buffer;
+  private final int mask;
+  private final int generation;
+
+  /**
+   * Maps a cache file. A valid file keeps its size; a missing file, or one
+   * written for another VERSION, is (re)created empty with the given size.
+   *
+   * @param path the file
+   * @param bytes the size of a new table, at least TranspositionTable.ENTRY_BYTES
+   * @throws IOException if the file cannot be mapped
+   */
+  public PositionCache(Path path, long bytes) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // The header is checked and updated by one process at a time
+      FileLock lock = channel.lock();
+      try {
+        int entries = 0;
+        if (channel.size() >= HEADER_BYTES) {
+          MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+          entries = header.getInt(8);
+          if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+              || Integer.bitCount(entries) != 1 || entries > MAX_ENTRIES
+              || channel.size() < HEADER_BYTES + (long) entries * TranspositionTable.ENTRY_BYTES) {
+            entries = 0;
+          }
+        }
+        boolean reset = (entries == 0);
+        if (reset) {
+          entries = (int) Math.min(MAX_ENTRIES,
+              Long.highestOneBit(Math.max(1, bytes / TranspositionTable.ENTRY_BYTES)));
+        }
+
+        long size = HEADER_BYTES + (long) entries * TranspositionTable.ENTRY_BYTES;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (reset) {
+          for (int offset = HEADER_BYTES; offset < size; offset += 8) {
+            buffer.putLong(offset, 0);
+          }
+          buffer.putInt(8, entries);
+          buffer.putInt(4, VERSION);
+          buffer.putInt(0, MAGIC);
+          buffer.putInt(GENERATION_OFFSET, 0);
+        }
+        generation = (buffer.getInt(GENERATION_OFFSET) + 1) & 0xff;
+        buffer.putInt(GENERATION_OFFSET, generation);
+      } finally {
+        lock.release();
+      }
+    }
+    this.mask = buffer.getInt(8) - 1;
+  }
+
+  /**
+   * Gets the number of entries in the table.
+   */
+  public int size() {
+    return mask + 1;
+  }
+
+  /**
+   * Looks up a position.
+   *
+   * @param key the key of the position
+   * @return the data word stored for the position, as decoded by the
+   *         TranspositionTable methods, or 0 if there is none
+   */
+  public long probe(long key) {
+    int offset = offset(key);
+    long entry = buffer.getLong(offset + 8);
+    if (entry == 0 || (buffer.getLong(offset) ^ entry) != key) {
+      return 0;
+    }
+    return entry;
+  }
+
+  /**
+   * Stores the result of a search.
+   *
+   * @param key the key of the position
+   * @param depth the depth the position was searched to
+   * @param bound one of the TranspositionTable bounds
+   * @param score the score found
+   * @param move the best cell found, or TranspositionTable.NO_MOVE
+   */
+  public void store(long key, int depth, int bound, float score, int move) {
+    int offset = offset(key);
+    long entry = buffer.getLong(offset + 8);
+    if (entry != 0 && TranspositionTable.depth(entry) > depth) {
+      boolean samePosition = (buffer.getLong(offset) ^ entry) == key;
+      int age = (generation - TranspositionTable.ageOf(entry)) & 0xff;
+      if (samePosition || age < ageLimit) {
+        return;
+      }
+    }
+    entry = TranspositionTable.pack(depth, bound, score, move, generation);
+    buffer.putLong(offset, key ^ entry);
+    buffer.putLong(offset + 8, entry);
+  }
+
+  private int offset(long key) {
+    return HEADER_BYTES + ((int) key & mask) * TranspositionTable.ENTRY_BYTES;
+  }
+
+  /**
+   * Creates a cache file, which Player then uses from its working directory.
+   * An existing valid file is kept as it is.
+   *
+   * Usage: java PositionCache [megabytes] [file]
+   */
+  public static void main(String[] args) throws IOException {
+    long megabytes = (args.length > 0) ? Long.parseLong(args[0]) : 64;
+    Path path = Paths.get((args.length > 1) ? args[1] : Player.cacheFile);
+    PositionCache cache = new PositionCache(path, megabytes << 20);
+    System.err.println(path + ": " + cache.size() + " entries");
+  }
+}
@@ -0,0 +1,304 @@
+/**
+ * Solves positions exactly with depth-first proof-number search (df-pn).
+ *
+ * A search tries to prove that one player (the attacker) wins. The proof
+ * number of a node is the least number of leaves which still have to be
+ * proven to prove it, and its disproof number is the same for disproving
+ * it. The search always expands the most proving node, and returns from a
+ * subtree as soon as its numbers exceed the thresholds given by its parent.
+ * Draws count as disproofs, so telling a draw from a loss needs a second
+ * search in which the opponent is the attacker.
+ *
+ * Proof and disproof numbers live in a bounded table indexed by Zobrist
+ * keys, always replacing what was stored in a slot. When a player has a line
+ * one mark from complete, only the moves winning or blocking it are
+ * considered, since any other move loses.
+ */
+public class ProofNumberSearch {
+  public static final int UNKNOWN = 0;   ///< the position could not be solved in time
+  public static final int WIN     = 1;   ///< the next player wins
+  public static final int DRAW    = 2;   ///< the next player cannot win, but can avoid losing
+  public static final int LOSS    = 3;   ///< the next player loses whatever they play
+
+  private static final int INFINITY = 1 << 28;
+  private static final int ENTRY_BYTES = 16;
+  private static final int checkInterval = 1024;   ///< nodes between two deadline checks
+
+  /* Keys of the two searches must differ, as their numbers do */
+  private static final long[] ATTACKER_KEYS = { 0, 0, 0x6a09e667f3bcc909L, 0xbb67ae8584caa73bL };
+
+  private final long[] keys;
+  private final int[] proofs;
+  private final int[] disproofs;
+  private final int mask;
+
+  private final int[][] moves = new int[GameState.CELL_COUNT + 1][GameState.CELL_COUNT];
+
+  private BitGameState board;
+  private int attacker;
+  private long attackerKey;
+  private Deadline deadline;
+  private long stopTime;
+  private long nodes;
+  private boolean timeout;
+  private int move;
+
+  /* Proof and disproof numbers of the last node looked at */
+  private int proof;
+  private int disproof;
+
+  /**
+   * Creates a solver whose table uses at most the given amount of memory.
+   *
+   * @param tableMemory the memory budget of the table, in bytes
+   */
+  public ProofNumberSearch(long tableMemory) {
+    int entries = (int) Math.min(1 << 30,
+        Long.highestOneBit(Math.max(1, tableMemory / ENTRY_BYTES)));
+    this.keys = new long[entries];
+    this.proofs = new int[entries];
+    this.disproofs = new int[entries];
+    this.mask = entries - 1;
+  }
+
+  /**
+   * Solves a position for its next player.
+   *
+   * @param board the position, which is left unchanged
+   * @param deadline the deadline of the move
+   * @param stopTime the search gives up when deadline.timeUntil() drops
+   *        below this
+   * @return one of UNKNOWN, WIN, DRAW or LOSS
+   */
+  public int solve(BitGameState board, Deadline deadline, long stopTime) {
+    this.board = board;
+    this.deadline = deadline;
+    this.stopTime = stopTime;
+    this.timeout = false;
+    this.move = -1;
+    if (board.isEOG()) {
+      return UNKNOWN;
+    }
+
+    int player = board.getNextPlayer();
+    int opponent = player ^ (Constants.CELL_X | Constants.CELL_O);
+
+    // Can the next player win?
+    prove(player);
+    if (timeout) {
+      return UNKNOWN;
+    }
+    if (proof == 0) {
+      move = bestChild(true);
+      return (move >= 0) ? WIN : UNKNOWN;
+    }
+    if (disproof != 0) {
+      return UNKNOWN;
+    }
+
+    // If not, can the opponent win whatever the next player does?
+    prove(opponent);
+    if (timeout) {
+      return UNKNOWN;
+    }
+    if (proof == 0) {
+      return LOSS;
+    }
+    if (disproof != 0) {
+      return UNKNOWN;
+    }
+    move = bestChild(false);
+    return (move >= 0) ? DRAW : UNKNOWN;
+  }
+
+  /**
+   * Gets the move proven by the last solve: a winning move after a WIN, or a
+   * move which does not lose after a DRAW.
+   */
+  public int getMove() {
+    return move;
+  }
+
+  /**
+   * Gets the number of nodes searched since the solver was created.
+   */
+  public long getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Runs df-pn from the root until the root is solved or time is up. The
+   * numbers of the root are left in proof and disproof.
+   */
+  private void prove(int player) {
+    attacker = player;
+    attackerKey = ATTACKER_KEYS[player];
+    search(0, INFINITY, INFINITY);
+    lookup(board.getKey() ^ attackerKey);
+  }
+
+  /**
+   * Finds the root move whose subtree is proven (when the root is an OR
+   * node) or disproven (when it is an AND node), or -1 if the entry of that
+   * child was replaced in the table since.
+   */
+  private int bestChild(boolean proven) {
+    int[] cells = moves[0];
+    int count = generate(cells);
+    for (int i = 0; i < count; i++) {
+      child(cells[i]);
+      if (proven ? proof == 0 : disproof == 0) {
+        return cells[i];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Expands the node of the current board until its proof number reaches
+   * proofThreshold or its disproof number reaches disproofThreshold.
+   */
+  private void search(int depth, int proofThreshold, int disproofThreshold) {
+    if ((++nodes % checkInterval) == 0 && deadline.timeUntil() < stopTime) {
+      timeout = true;
+    }
+    if (timeout) {
+      return;
+    }
+
+    long key = board.getKey() ^ attackerKey;
+    boolean orNode = board.getNextPlayer() == attacker;
+    int[] cells = moves[depth];
+    int count = generate(cells);
+
+    while (true) {
+      // OR nodes need one proven child and all children disproven, AND
+      // nodes the other way round
+      int nodeProof = orNode ? INFINITY : 0;
+      int nodeDisproof = orNode ? 0 : INFINITY;
+      int best = -1;
+      int bestValue = INFINITY;
+      int secondValue = INFINITY;
+      int bestOther = 0;
+      for (int i = 0; i < count; i++) {
+        child(cells[i]);
+        int value = orNode ? proof : disproof;
+        int other = orNode ? disproof : proof;
+        if (value < bestValue) {
+          secondValue = bestValue;
+          bestValue = value;
+          bestOther = other;
+          best = i;
+        }
+        else if (value < secondValue) {
+          secondValue = value;
+        }
+        if (orNode) {
+          nodeProof = Math.min(nodeProof, proof);
+          nodeDisproof = add(nodeDisproof, disproof);
+        }
+        else {
+          nodeProof = add(nodeProof, proof);
+          nodeDisproof = Math.min(nodeDisproof, disproof);
+        }
+      }
+      store(key, nodeProof, nodeDisproof);
+
+      if (nodeProof >= proofThreshold || nodeDisproof >= disproofThreshold
+          || timeout) {
+        return;
+      }
+
+      int childProof, childDisproof;
+      if (orNode) {
+        childProof = Math.min(proofThreshold, secondValue + 1);
+        childDisproof = Math.min(INFINITY, disproofThreshold - nodeDisproof + bestOther);
+      }
+      else {
+        childProof = Math.min(INFINITY, proofThreshold - nodeProof + bestOther);
+        childDisproof = Math.min(disproofThreshold, secondValue + 1);
+      }
+
+      board.apply(cells[best]);
+      search(depth + 1, childProof, childDisproof);
+      board.undo();
+    }
+  }
+
+  /**
+   * Adds two proof or disproof numbers. Only a node which cannot be proven
+   * (or disproven) has an infinite number, so large sums stop just below it.
+   */
+  private static int add(int a, int b) {
+    if (a == INFINITY || b == INFINITY) {
+      return INFINITY;
+    }
+    return Math.min(INFINITY - 1, a + b);
+  }
+
+  /**
+   * Lists the moves worth considering from the current board: a winning
+   * move if there is one, else the blocks of the opponent's lines if they
+   * have any, else every empty cell.
+   */
+  private int generate(int[] cells) {
+    int player = board.getNextPlayer();
+    int opponent = player ^ (Constants.CELL_X | Constants.CELL_O);
+    long candidates = board.getWinCells(player);
+    if (candidates != 0) {
+      candidates &= -candidates;
+    }
+    else {
+      candidates = board.getWinCells(opponent);
+      if (candidates == 0) {
+        candidates = board.getEmptyCells();
+      }
+    }
+
+    int count = 0;
+    while (candidates != 0) {
+      cells[count++] = Long.numberOfTrailingZeros(candidates);
+      candidates &= candidates - 1;
+    }
+    return count;
+  }
+
+  /**
+   * Sets proof and disproof to the numbers of the child reached by marking
+   * cell, which are known when the move ends the game and else looked up.
+   */
+  private void child(int cell) {
+    int mover = board.getNextPlayer();
+    int special = board.specialMove(cell, mover);
+    if (special == Move.SPECIAL_WIN && mover == attacker) {
+      proof = 0;
+      disproof = INFINITY;
+    }
+    else if (special != Move.SPECIAL_NONE) {
+      proof = INFINITY;
+      disproof = 0;
+    }
+    else {
+      lookup(board.getKeyAfter(cell) ^ attackerKey);
+    }
+  }
+
+  private void lookup(long key) {
+    int index = (int) key & mask;
+    if (keys[index] == key && (proofs[index] | disproofs[index]) != 0) {
+      proof = proofs[index];
+      disproof = disproofs[index];
+    }
+    else {
+      proof = 1;
+      disproof = 1;
+    }
+  }
+
+  private void store(long key, int proof, int disproof) {
+    int index = (int) key & mask;
+    keys[index] = key;
+    proofs[index] = proof;
+    disproofs[index] = disproof;
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * The symmetries of the 4x4x4 board, that is the 192 permutations of the
+ * cells which map the 76 winning lines onto themselves.
+ *
+ * They are the 48 rotations and reflections of the cube, combined with the
+ * permutations which swap the inner and outer rows of all the axes at once.
+ * Two positions which are images of each other under a symmetry have the
+ * same value, so a search only needs to look at one of them.
+ */
+public class Symmetry {
+  public static final int COUNT = 192;
+
+  /** PERMUTATIONS[s][cell] is the image of cell under symmetry s */
+  static final int[][] PERMUTATIONS = new int[COUNT][];
+  /** INVERSES[s][cell] is the cell whose image under symmetry s is cell */
+  static final int[][] INVERSES = new int[COUNT][];
+
+  /* Images of every 8-cell block of a bitboard, for every symmetry */
+  private static final long[][][] BYTE_IMAGES = new long[COUNT][8][256];
+
+  static {
+    final int n = GameState.BOARD_SIZE;
+
+    // The permutations of the coordinate values which commute with reversal
+    int[][] valueMaps = new int[8][];
+    int valueMapCount = 0;
+    for (int a = 0; a < n; ++a)
+      for (int b = 0; b < n; ++b) {
+        if (a == b || a == n - 1 - b) {
+          continue;
+        }
+        valueMaps[valueMapCount++] = new int[] { a, b, n - 1 - b, n - 1 - a };
+      }
+    assert(valueMapCount == 8);
+
+    int[][] axisOrders = { { 0, 1, 2 }, { 0, 2, 1 }, { 1, 0, 2 },
+                           { 1, 2, 0 }, { 2, 0, 1 }, { 2, 1, 0 } };
+
+    java.util.HashSet<Long> lineMasks = new java.util.HashSet<Long>();
+    for (long mask : BitGameState.LINE_MASKS)
+      lineMasks.add(mask);
+
+    java.util.HashSet<String> seen = new java.util.HashSet<String>();
+    int count = 0;
+    for (int[] axes : axisOrders)
+      for (int flips = 0; flips < 8; ++flips)
+        for (int[] values : valueMaps) {
+          int[] permutation = new int[GameState.CELL_COUNT];
+          for (int cell = 0; cell < GameState.CELL_COUNT; ++cell) {
+            int[] from = { GameState.cellToRow(cell), GameState.cellToCol(cell),
+                           GameState.cellToLay(cell) };
+            int[] to = new int[3];
+            for (int k = 0; k < 3; ++k) {
+              int value = values[from[axes[k]]];
+              to[k] = ((flips >> k) & 1) != 0 ? n - 1 - value : value;
+            }
+            permutation[cell] = GameState.rowColumnLayerToCell(to[0], to[1], to[2]);
+          }
+
+          boolean keepsLines = true;
+          for (long mask : BitGameState.LINE_MASKS)
+            keepsLines &= lineMasks.contains(transform(permutation, mask));
+          if (keepsLines && seen.add(java.util.Arrays.toString(permutation))) {
+            PERMUTATIONS[count++] = permutation;
+          }
+        }
+    assert(count == COUNT);
+
+    for (int s = 0; s < COUNT; ++s) {
+      INVERSES[s] = new int[GameState.CELL_COUNT];
+      for (int cell = 0; cell < GameState.CELL_COUNT; ++cell)
+        INVERSES[s][PERMUTATIONS[s][cell]] = cell;
+      for (int b = 0; b < 8; ++b)
+        for (int value = 0; value < 256; ++value)
+          BYTE_IMAGES[s][b][value] =
+              transform(PERMUTATIONS[s], (long) value << (8 * b));
+    }
+  }
+
+  private static long transform(int[] permutation, long cells) {
+    long image = 0;
+    for (long bits = cells; bits != 0; bits &= bits - 1)
+      image |= 1L << permutation[Long.numberOfTrailingZeros(bits)];
+    return image;
+  }
+
+  /**
+   * Gets the image of a set of cells, one bit per cell, under a symmetry.
+   *
+   * @param symmetry the symmetry index, from 0 to COUNT - 1
+   * @param cells the set of cells
+   */
+  public static long transform(int symmetry, long cells) {
+    long[][] images = BYTE_IMAGES[symmetry];
+    return images[0][(int) cells & 0xff]
+         | images[1][(int) (cells >>> 8) & 0xff]
+         | images[2][(int) (cells >>> 16) & 0xff]
+         | images[3][(int) (cells >>> 24) & 0xff]
+         | images[4][(int) (cells >>> 32) & 0xff]
+         | images[5][(int) (cells >>> 40) & 0xff]
+         | images[6][(int) (cells >>> 48) & 0xff]
+         | images[7][(int) (cells >>> 56) & 0xff];
+  }
+
+  /**
+   * Finds the symmetry mapping a position to its canonical form, which is the
+   * image with the smallest X cells and then the smallest O cells (compared
+   * as unsigned numbers).
+   *
+   * @param xCells the cells of player X
+   * @param oCells the cells of player O
+   * @return the index of the symmetry
+   */
+  public static int canonicalSymmetry(long xCells, long oCells) {
+    int best = 0;
+    long bestX = xCells;
+    long bestO = oCells;
+    for (int s = 1; s < COUNT; ++s) {
+      long x = transform(s, xCells);
+      int order = Long.compareUnsigned(x, bestX);
+      if (order > 0) {
+        continue;
+      }
+      long o = transform(s, oCells);
+      if (order < 0 || Long.compareUnsigned(o, bestO) < 0) {
+        best = s;
+        bestX = x;
+        bestO = o;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Lists the symmetries which leave a position unchanged.
+   *
+   * @param xCells the cells of player X
+   * @param oCells the cells of player O
+   * @param symmetries an array of at least COUNT elements receiving them
+   * @return the number of symmetries stored
+   */
+  public static int stabilizer(long xCells, long oCells, int[] symmetries) {
+    int count = 0;
+    for (int s = 0; s < COUNT; ++s) {
+      if (transform(s, xCells) == xCells && transform(s, oCells) == oCells) {
+        symmetries[count++] = s;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * Looks for a forced win made only of threats.
+ *
+ * The attacker (the next player of the board searched) only plays moves
+ * which put three marks on an otherwise empty line, so that the defender has
+ * exactly one reply: blocking the fourth cell. When the defender's block
+ * itself makes a threat, the attacker has to block it with a move which also
+ * threatens. The attacker wins when a move leaves two threats at once.
+ *
+ * Since both sides have at most a handful of moves to consider, the search
+ * can look much deeper than a full-width alphabeta. Positions already known
+ * to be won or not won are kept in a transposition table.
+ */
+public class ThreatSearch {
+  private static final int checkInterval = 256;   ///< nodes between two deadline checks
+
+  private final TranspositionTable table;
+  private BitGameState board;
+  private Deadline deadline;
+  private long stopTime;
+  private long nodes;
+  private boolean timeout;
+  private int winningMove;
+
+  /**
+   * Creates a searcher whose table uses at most the given amount of memory.
+   *
+   * @param tableMemory the memory budget of the table, in bytes
+   */
+  public ThreatSearch(long tableMemory) {
+    this.table = new TranspositionTable(tableMemory);
+  }
+
+  /**
+   * Searches for a sequence of threats which wins for the next player.
+   *
+   * @param board the position searched, which is left unchanged
+   * @param maxDepth the maximum number of plies of the sequence
+   * @param deadline the deadline of the move
+   * @param stopTime the search gives up when deadline.timeUntil() drops
+   *        below this
+   * @return the first cell of a winning sequence, or -1 if none was found
+   */
+  public int findWin(BitGameState board, int maxDepth, Deadline deadline,
+                     long stopTime) {
+    this.board = board;
+    this.deadline = deadline;
+    this.stopTime = stopTime;
+    this.timeout = false;
+    this.winningMove = -1;
+    table.newSearch();
+
+    if (board.isEOG()) {
+      return -1;
+    }
+    for (int depth = 1; depth <= maxDepth && !timeout; depth += 2) {
+      if (attack(depth, true)) {
+        return winningMove;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Gets the number of nodes searched since the searcher was created.
+   */
+  public long getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Checks whether the attacker, to move, wins within depth plies.
+   */
+  private boolean attack(int depth, boolean root) {
+    int attacker = board.getNextPlayer();
+    int defender = attacker ^ (Constants.CELL_X | Constants.CELL_O);
+
+    long wins = board.getWinCells(attacker);
+    if (wins != 0) {
+      if (root) winningMove = Long.numberOfTrailingZeros(wins);
+      return true;
+    }
+
+    // A threat of the defender has to be blocked, and two cannot be
+    long blocks = board.getWinCells(defender);
+    if (Long.bitCount(blocks) > 1 || depth <= 0 || isTimeout()) {
+      return false;
+    }
+
+    long key = board.getKey();
+    long entry = table.probe(key);
+    if (entry != 0) {
+      if (TranspositionTable.score(entry) > 0) {
+        if (root) winningMove = TranspositionTable.move(entry);
+        return true;
+      }
+      if (TranspositionTable.depth(entry) >= depth) {
+        return false;
+      }
+    }
+
+    long candidates = board.getLineCells(attacker, BitGameState.BOARD_SIZE - 2);
+    if (blocks != 0) {
+      candidates &= blocks;
+    }
+
+    boolean won = false;
+    int move = TranspositionTable.NO_MOVE;
+    while (candidates != 0 && !won) {
+      move = Long.numberOfTrailingZeros(candidates);
+      candidates &= candidates - 1;
+
+      board.apply(move);
+      won = !board.isEOG() && defend(depth - 1);
+      board.undo();
+    }
+
+    if (timeout) {
+      return false;
+    }
+    table.store(key, depth, TranspositionTable.BOUND_EXACT, won ? 1 : 0, move);
+    if (won && root) {
+      winningMove = move;
+    }
+    return won;
+  }
+
+  /**
+   * Checks whether the attacker wins within depth plies, the defender being
+   * to move and facing at least one threat.
+   */
+  private boolean defend(int depth) {
+    int defender = board.getNextPlayer();
+    int attacker = defender ^ (Constants.CELL_X | Constants.CELL_O);
+
+    if (board.getWinCells(defender) != 0) {
+      return false;
+    }
+    long threats = board.getWinCells(attacker);
+    if (Long.bitCount(threats) > 1) {
+      return true;
+    }
+    if (threats == 0) {
+      return false;
+    }
+
+    board.apply(Long.numberOfTrailingZeros(threats));
+    boolean won = !board.isEOG() && attack(depth - 1, false);
+    board.undo();
+    return won;
+  }
+
+  private boolean isTimeout() {
+    if ((++nodes % checkInterval) == 0 && deadline.timeUntil() < stopTime) {
+      timeout = true;
+    }
+    return timeout;
+  }
+}
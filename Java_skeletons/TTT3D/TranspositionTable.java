@@ -0,0 +1,178 @@
+/**
+ * A fixed-size table of search results, indexed by the Zobrist key of a
+ * position.
+ *
+ * Each entry packs the search depth, the bound type, the score and the best
+ * move into one long, stored next to the full key of the position. The table
+ * is sized from a memory budget and keeps the deepest result when two
+ * positions compete for a slot, unless the stored one is left over from an
+ * earlier search.
+ *
+ * The table can be shared by several search threads without locking. The
+ * key of an entry is stored XORed with its data word, so an entry whose two
+ * words were written by different threads no longer matches its key and is
+ * simply treated as missing. The hit, miss and collision counts are only
+ * approximate when the table is shared.
+ */
+public class TranspositionTable {
+  public static final int BOUND_EXACT = 0;   ///< the score is exact
+  public static final int BOUND_LOWER = 1;   ///< the score is a lower bound
+  public static final int BOUND_UPPER = 2;   ///< the score is an upper bound
+
+  public static final int NO_MOVE = GameState.CELL_COUNT;   ///< no best move
+
+  /** Bytes used by one entry (a key and a data word) */
+  public static final int ENTRY_BYTES = 16;
+
+  /*
+   * Layout of a data word, from the low bits up: score (32 bits), depth
+   * (8 bits), bound (2 bits), best move (7 bits), age (8 bits) and a bit
+   * which is always set so that a stored entry is never 0.
+   */
+  private static final int DEPTH_SHIFT = 32;
+  private static final int BOUND_SHIFT = 40;
+  private static final int MOVE_SHIFT  = 42;
+  private static final int AGE_SHIFT   = 49;
+  private static final long USED      = 1L << 57;
+
+  private final long[] keys;
+  private final long[] data;
+  private final int mask;
+  private int age;
+
+  private long hits;
+  private long misses;
+  private long collisions;
+
+  /**
+   * Creates a table using at most the given amount of memory.
+   *
+   * @param bytes the memory budget, at least ENTRY_BYTES
+   */
+  public TranspositionTable(long bytes) {
+    long entries = Long.highestOneBit(Math.max(1, bytes / ENTRY_BYTES));
+    entries = Math.min(entries, 1 << 30);
+    this.keys = new long[(int) entries];
+    this.data = new long[(int) entries];
+    this.mask = (int) entries - 1;
+  }
+
+  /**
+   * Gets the number of entries in the table.
+   */
+  public int size() {
+    return keys.length;
+  }
+
+  /**
+   * Marks the start of a new search. Entries stored by earlier searches are
+   * replaced first.
+   */
+  public void newSearch() {
+    age = (age + 1) & 0xff;
+  }
+
+  /**
+   * Empties the table and resets the counters.
+   */
+  public void clear() {
+    java.util.Arrays.fill(keys, 0);
+    java.util.Arrays.fill(data, 0);
+    hits = misses = collisions = 0;
+  }
+
+  /**
+   * Looks up a position.
+   *
+   * @param key the Zobrist key of the position
+   * @return the data word stored for the position, or 0 if there is none
+   */
+  public long probe(long key) {
+    int index = (int) key & mask;
+    long entry = data[index];
+    if (entry == 0) {
+      misses++;
+      return 0;
+    }
+    if ((keys[index] ^ entry) != key) {
+      collisions++;
+      return 0;
+    }
+    hits++;
+    return entry;
+  }
+
+  /**
+   * Stores the result of a search.
+   *
+   * @param key the Zobrist key of the position
+   * @param depth the depth the position was searched to
+   * @param bound one of BOUND_EXACT, BOUND_LOWER or BOUND_UPPER
+   * @param score the score found
+   * @param move the best cell found, or NO_MOVE
+   */
+  public void store(long key, int depth, int bound, float score, int move) {
+    int index = (int) key & mask;
+    long entry = data[index];
+    if (entry != 0 && (keys[index] ^ entry) != key && ageOf(entry) == age
+        && depth(entry) > depth) {
+      return;
+    }
+    entry = pack(depth, bound, score, move, age);
+    keys[index] = key ^ entry;
+    data[index] = entry;
+  }
+
+  /** Packs a search result into a data word */
+  static long pack(int depth, int bound, float score, int move, int age) {
+    return (Float.floatToRawIntBits(score) & 0xffffffffL)
+        | ((long) depth << DEPTH_SHIFT) | ((long) bound << BOUND_SHIFT)
+        | ((long) move << MOVE_SHIFT) | ((long) age << AGE_SHIFT) | USED;
+  }
+
+  /** Gets the score of a data word returned by probe */
+  public static float score(long entry) {
+    return Float.intBitsToFloat((int) entry);
+  }
+
+  /** Gets the depth of a data word returned by probe */
+  public static int depth(long entry) {
+    return (int) (entry >>> DEPTH_SHIFT) & 0xff;
+  }
+
+  /** Gets the bound type of a data word returned by probe */
+  public static int bound(long entry) {
+    return (int) (entry >>> BOUND_SHIFT) & 0x3;
+  }
+
+  /** Gets the best move of a data word returned by probe */
+  public static int move(long entry) {
+    return (int) (entry >>> MOVE_SHIFT) & 0x7f;
+  }
+
+  /** Gets the age of a data word, the search which stored it */
+  static int ageOf(long entry) {
+    return (int) (entry >>> AGE_SHIFT) & 0xff;
+  }
+
+  /** Gets the number of probes which found their position */
+  public long getHits() {
+    return hits;
+  }
+
+  /** Gets the number of probes which found an empty slot */
+  public long getMisses() {
+    return misses;
+  }
+
+  /** Gets the number of probes which found another position in the slot */
+  public long getCollisions() {
+    return collisions;
+  }
+
+  @Override
+  public String toString() {
+    return "entries " + size() + ", hits " + hits + ", misses " + misses
+        + ", collisions " + collisions;
+  }
+}